@@ -0,0 +1,274 @@
+/* Names: Emma Lee and Rachel Nguyen
+* File: Batch.java
+* Desc:
+*
+* Runs the same Job over many images at once in one program.
+*
+* The images come from a directory (every .ppm and .qtc file in
+* it) or from a manifest file listing one image per line. Each
+* image gets a Job of its own, parsed from the same flags. The
+* reading and writing of each Job run on a thread of their own,
+* a virtual thread when the Java version has them, while the
+* processing runs on the shared WorkerPool, so the number of
+* images being processed at once is bounded by its threads.
+* A semaphore bounds how many images are in memory at once, so
+* the batch waits for a Job to finish before it reads more. Each
+* output is written on the IO executor as soon as the Job makes
+* it, one at a time, so a Job holds its image and at most the
+* output being written and the one being made.
+*
+* A failed image is reported and the batch goes on with the rest.
+*
+* With -u the images are frames of one sequence instead, run one
+* after another in order, each compressed by updating the
+* quadtree of the frame before it.
+*
+*/
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class Batch {
+    public static final int JOBS_PER_THREAD = 2; // images in memory per WorkerPool thread, so one can be read or written while another is processed
+    public static final String MANIFEST_COMMENT = "#"; // starts a line of a manifest that is not an image
+
+    private final String[] args; // the flags each Job is parsed from
+    private final String outputDirectory; // the directory the outputs are written to
+    private final AtomicInteger failures = new AtomicInteger(); // the number of images that failed
+
+    //---------------- nested Outputs class ----------------
+    /** Writes the outputs of a Job on the IO executor while the Job goes on, one at a time */
+    private static class Outputs implements Job.Sink {
+        private final ExecutorService io; // the executor the outputs are written on
+        private Future<Void> pending; // the output being written; or null if there is none
+
+        public Outputs(ExecutorService io) {
+            this.io = io;
+        }
+
+        @Override
+        public void write(Image img, Outline outline, String filename, boolean binary) throws IOException {
+            submit(() -> {
+                img.writeImg(outline, filename, binary);
+                return null;
+            });
+        }
+
+        @Override
+        public void write(byte[] bytes, String filename) throws IOException {
+            submit(() -> {
+                Job.writeBytes(bytes, filename);
+                return null;
+            });
+        }
+
+        /** Waits for the output before to be written, then starts writing the next */
+        private void submit(Callable<Void> task) throws IOException {
+            flush();
+            pending = io.submit(task);
+        }
+
+        /** Waits for the output being written, if any. The Job runs on a WorkerPool thread,
+        * so the wait is a managed block: the pool can start another thread in its place
+        * to keep the parallel work of the other Jobs going.
+        */
+        public void flush() throws IOException {
+            if (pending == null) {
+                return;
+            }
+            Future<Void> write = pending;
+            try {
+                ForkJoinPool.managedBlock(new ForkJoinPool.ManagedBlocker() {
+                    @Override
+                    public boolean block() throws InterruptedException {
+                        try {
+                            write.get();
+                        } catch (ExecutionException e) {
+                            // thrown again below
+                        }
+                        return true;
+                    }
+
+                    @Override
+                    public boolean isReleasable() {
+                        return write.isDone();
+                    }
+                });
+                write.get();
+            } catch (ExecutionException e) {
+                if (e.getCause() instanceof IOException) {
+                    throw (IOException) e.getCause();
+                }
+                if (e.getCause() instanceof RuntimeException) {
+                    throw (RuntimeException) e.getCause();
+                }
+                throw new IOException(e.getCause());
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("interrupted while writing");
+            } finally {
+                pending = null;
+            }
+        }
+    } //----------- end of nested Outputs class -----------
+
+    /** Creates a batch
+    * @param args The flags of the Job run on every image; -i and -o are replaced for each image
+    * @param outputDirectory the directory to write the outputs to
+    */
+    public Batch(String[] args, String outputDirectory) {
+        this.args = args;
+        this.outputDirectory = outputDirectory;
+    }
+
+    /** Lists the images of a batch
+    * @param source A directory of images, or a manifest file with one image per line
+    * @return List<String> the filenames of the images, in order
+    */
+    public static List<String> inputs(String source) throws IOException {
+        Path path = Paths.get(source);
+        List<String> inputs = new ArrayList<String>();
+        if (Files.isDirectory(path)) {
+            try (DirectoryStream<Path> dir = Files.newDirectoryStream(path,
+                    "*{" + Main.FILETYPE + "," + QuadTreeCodec.FILETYPE + "}")) {
+                for (Path file : dir) {
+                    inputs.add(file.toString());
+                }
+            }
+            Collections.sort(inputs);
+        } else {
+            Path parent = path.toAbsolutePath().getParent(); // relative lines are relative to the manifest
+            for (String line : Files.readAllLines(path)) {
+                line = line.trim();
+                if (!line.isEmpty() && !line.startsWith(MANIFEST_COMMENT)) {
+                    inputs.add(parent.resolve(line).toString());
+                }
+            }
+        }
+        return inputs;
+    }
+
+    /** Creates the executor for reading and writing: a virtual thread per task
+    * when the Java version has them (21 and later), and a pool of threads
+    * created as needed otherwise
+    * @return ExecutorService the executor
+    */
+    public static ExecutorService newIoExecutor() {
+        try {
+            return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+        } catch (ReflectiveOperationException e) {
+            return Executors.newCachedThreadPool();
+        }
+    }
+
+    /** Runs a Job on every image, returning when they are all done
+    * @param inputs the filenames of the images
+    * @return int the number of images that failed
+    */
+    public int run(List<String> inputs) throws IOException, InterruptedException {
+        Files.createDirectories(Paths.get(outputDirectory));
+        int inMemoryLimit = JOBS_PER_THREAD * WorkerPool.getThreads();
+        Semaphore inMemory = new Semaphore(inMemoryLimit);
+        ExecutorService io = newIoExecutor();
+        try {
+            for (String input : inputs) {
+                inMemory.acquire(); // wait for room before reading another image
+                io.execute(() -> {
+                    try {
+                        runJob(input, io);
+                    } finally {
+                        inMemory.release();
+                    }
+                });
+            }
+            inMemory.acquire(inMemoryLimit); // the last Jobs still write on io, so wait for them before shutting it down
+        } finally {
+            io.shutdown();
+            io.awaitTermination(Long.MAX_VALUE, TimeUnit.DAYS);
+        }
+        System.out.println("processed " + inputs.size() + " images, " + failures.get() + " failed");
+        return failures.get();
+    }
+
+    /** Runs a Job on every image in order, as the frames of one sequence: each
+    * frame's quadtree is updated from the frame before rather than built anew
+    * @param inputs the filenames of the frames, in order
+    * @return int the number of frames that failed
+    */
+    public int runFrames(List<String> inputs) throws IOException {
+        Files.createDirectories(Paths.get(outputDirectory));
+        FrameCompressor frames = new FrameCompressor(); // a failed frame leaves it at the last good one
+        for (String input : inputs) {
+            try {
+                Job job = newJob(input);
+                job.setFrames(frames);
+                job.process(job.read(), Job.DIRECT);
+            } catch (IOException | RuntimeException e) {
+                fail(input, e);
+            }
+        }
+        System.out.println("processed " + inputs.size() + " frames, " + failures.get() + " failed");
+        return failures.get();
+    }
+
+    /** Creates the Job of one image, writing its outputs to the output directory
+    * under the image's name
+    * @param input the filename of the image
+    * @return Job the Job
+    */
+    private Job newJob(String input) {
+        Job job = Job.parse(args);
+        job.setFilename(input);
+        String name = new File(input).getName();
+        int dot = name.lastIndexOf('.');
+        job.setOutputFilename(outputDirectory + File.separator + (dot > 0 ? name.substring(0, dot) : name));
+        return job;
+    }
+
+    /** Reads, processes and writes one image, reporting it if it fails
+    * @param input the filename of the image
+    * @param io the executor to write the outputs on
+    */
+    private void runJob(String input, ExecutorService io) {
+        try {
+            Job job = newJob(input);
+            Image original = job.read();
+            Outputs outputs = new Outputs(io);
+            WorkerPool.get().submit(() -> {
+                job.process(original, outputs);
+                return null;
+            }).get();
+            outputs.flush();
+        } catch (ExecutionException e) {
+            fail(input, e.getCause());
+        } catch (IOException | RuntimeException e) {
+            fail(input, e);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            fail(input, e);
+        }
+    }
+
+    /** Reports an image that failed */
+    private void fail(String input, Throwable e) {
+        failures.incrementAndGet();
+        System.out.println("failed " + input + ": " + e);
+    }
+}
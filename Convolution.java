@@ -0,0 +1,243 @@
+/* Names: Emma Lee and Rachel Nguyen
+* File: Convolution.java
+* Desc:
+*
+* A convolution engine over primitive pixel planes.
+*
+* Applies any Kernel to a float plane (one value per pixel,
+* row by row), one cache-sized tile at a time. Separable
+* kernels run as a horizontal then a vertical 1D pass, which
+* makes large kernels such as a 15x15 Gaussian cost 30
+* multiplies per pixel instead of 225. Pixels outside the
+* plane are supplied by a BorderMode.
+*
+* The kernel is applied as a correlation (it is not flipped).
+*
+*/
+
+public class Convolution {
+    public static final int TILE_SIZE = 64; // the side of the square tiles the output is computed in
+
+    /** How samples outside the plane are filled in */
+    public enum BorderMode {
+        CLAMP, // repeat the nearest edge pixel
+        REFLECT, // mirror the plane about its edge, without repeating the edge pixel
+        ZERO // treat outside pixels as 0
+    }
+
+    /** Maps a coordinate onto the plane using the border mode
+    * @param i The coordinate, possibly outside [0, n)
+    * @param n The length of the plane in that direction
+    * @param mode The border mode
+    * @return int The coordinate to read, or -1 if the sample is zero
+    */
+    public static int borderIndex(int i, int n, BorderMode mode) {
+        if (i >= 0 && i < n) {
+            return i;
+        }
+        switch (mode) {
+            case CLAMP:
+                return i < 0 ? 0 : n - 1;
+            case REFLECT:
+                if (n == 1) {
+                    return 0;
+                }
+                int period = 2 * (n - 1);
+                int m = Math.floorMod(i, period);
+                return m < n ? m : period - m;
+            default:
+                return -1;
+        }
+    }
+
+    /** Convolves a whole plane, in parallel tiles on the WorkerPool
+    * @param plane The input values, row by row
+    * @param width The width of the plane
+    * @param height The height of the plane
+    * @param kernel The kernel to apply
+    * @param mode How to fill in samples outside the plane
+    * @return float[] the convolved plane
+    */
+    public static float[] convolve(float[] plane, int width, int height, Kernel kernel, BorderMode mode) {
+        float[] out = new float[plane.length];
+        // tiles write disjoint parts of the output, so they can run in parallel
+        TileScheduler.forEachTile(width, height, kernel.getRadius(), tile -> convolve(plane, width, height, kernel, mode,
+            tile.getX(), tile.getY(), tile.getWidth(), tile.getHeight(), out));
+        return out;
+    }
+
+    /** Convolves a rectangle of a plane, writing only that rectangle of the output
+    * @param plane The input values, row by row
+    * @param width The width of the plane
+    * @param height The height of the plane
+    * @param kernel The kernel to apply
+    * @param mode How to fill in samples outside the plane
+    * @param x The x coordinate of the upper left pixel of the rectangle
+    * @param y The y coordinate of the upper left pixel of the rectangle
+    * @param w The width of the rectangle
+    * @param h The height of the rectangle
+    * @param out The output plane, the same size as the input
+    */
+    public static void convolve(float[] plane, int width, int height, Kernel kernel, BorderMode mode,
+            int x, int y, int w, int h, float[] out) {
+        float[] temp = kernel.isSeparable() ? new float[(TILE_SIZE + kernel.getSize() - 1) * TILE_SIZE] : null;
+        for (int ty = y; ty < y + h; ty += TILE_SIZE) {
+            int th = Math.min(TILE_SIZE, y + h - ty);
+            for (int tx = x; tx < x + w; tx += TILE_SIZE) {
+                int tw = Math.min(TILE_SIZE, x + w - tx);
+                if (temp != null) {
+                    separableTile(plane, width, height, kernel, mode, tx, ty, tw, th, out, temp);
+                } else {
+                    directTile(plane, width, height, kernel, mode, tx, ty, tw, th, out);
+                }
+            }
+        }
+    }
+
+    /** Applies a full NxN kernel to one tile */
+    private static void directTile(float[] plane, int width, int height, Kernel kernel, BorderMode mode,
+            int tx, int ty, int tw, int th, float[] out) {
+        int size = kernel.getSize();
+        int r = kernel.getRadius();
+        float[] k = kernel.weights();
+        for (int py = ty; py < ty + th; py++) {
+            boolean rowInside = py - r >= 0 && py + r < height;
+            for (int px = tx; px < tx + tw; px++) {
+                float sum = 0;
+                if (rowInside && px - r >= 0 && px + r < width) { // the whole window is inside the plane
+                    int start = (py - r) * width + px - r;
+                    for (int i = 0; i < size; i++) {
+                        int rowStart = start + i * width;
+                        for (int j = 0; j < size; j++) {
+                            sum += k[i * size + j] * plane[rowStart + j];
+                        }
+                    }
+                } else {
+                    for (int i = 0; i < size; i++) {
+                        int sy = borderIndex(py + i - r, height, mode);
+                        if (sy < 0) {
+                            continue;
+                        }
+                        for (int j = 0; j < size; j++) {
+                            int sx = borderIndex(px + j - r, width, mode);
+                            if (sx >= 0) {
+                                sum += k[i * size + j] * plane[sy * width + sx];
+                            }
+                        }
+                    }
+                }
+                out[py * width + px] = sum;
+            }
+        }
+    }
+
+    /** Applies a separable kernel to one tile: a horizontal pass over the tile
+    * and its vertical margin into temp, then a vertical pass into the output
+    */
+    private static void separableTile(float[] plane, int width, int height, Kernel kernel, BorderMode mode,
+            int tx, int ty, int tw, int th, float[] out, float[] temp) {
+        int size = kernel.getSize();
+        int r = kernel.getRadius();
+        float[] column = kernel.column();
+        float[] row = kernel.row();
+        boolean colsInside = tx - r >= 0 && tx + tw + r <= width;
+
+        // horizontal pass over rows ty - r .. ty + th + r - 1
+        for (int ry = 0; ry < th + 2 * r; ry++) {
+            int sy = borderIndex(ty + ry - r, height, mode);
+            int tempRow = ry * TILE_SIZE;
+            if (sy < 0) { // a zero row
+                for (int j = 0; j < tw; j++) {
+                    temp[tempRow + j] = 0;
+                }
+                continue;
+            }
+            int rowStart = sy * width;
+            for (int px = tx; px < tx + tw; px++) {
+                float sum = 0;
+                if (colsInside) {
+                    int start = rowStart + px - r;
+                    for (int j = 0; j < size; j++) {
+                        sum += row[j] * plane[start + j];
+                    }
+                } else {
+                    for (int j = 0; j < size; j++) {
+                        int sx = borderIndex(px + j - r, width, mode);
+                        if (sx >= 0) {
+                            sum += row[j] * plane[rowStart + sx];
+                        }
+                    }
+                }
+                temp[tempRow + px - tx] = sum;
+            }
+        }
+
+        // vertical pass
+        for (int py = 0; py < th; py++) {
+            int outRow = (ty + py) * width + tx;
+            for (int j = 0; j < tw; j++) {
+                float sum = 0;
+                for (int i = 0; i < size; i++) {
+                    sum += column[i] * temp[(py + i) * TILE_SIZE + j];
+                }
+                out[outRow + j] = sum;
+            }
+        }
+    }
+
+    /** Splits one channel of an image into a float plane
+    * @param img The image
+    * @param shift The bit position of the channel: 16 for red, 8 for green, 0 for blue
+    * @return float[] the channel values, row by row
+    */
+    public static float[] channel(Image img, int shift) {
+        int[] pixels = img.getPixels();
+        float[] plane = new float[pixels.length];
+        for (int i = 0; i < pixels.length; i++) {
+            plane[i] = (pixels[i] >> shift) & 0xFF;
+        }
+        return plane;
+    }
+
+    /** Returns the grayscale luminance (0.3 r + 0.59 g + 0.11 b) of every pixel
+    * @param img The image
+    * @return float[] the luminances, row by row
+    */
+    public static float[] luminance(Image img) {
+        int[] pixels = img.getPixels();
+        float[] plane = new float[pixels.length];
+        for (int i = 0; i < pixels.length; i++) {
+            int c = pixels[i];
+            plane[i] = (float) (Image.red(c) * 0.3 + Image.green(c) * 0.59 + Image.blue(c) * 0.11);
+        }
+        return plane;
+    }
+
+    /** Convolves each channel of an image with a kernel, rounding and clamping to [0, 255]
+    * @param img The image
+    * @param kernel The kernel to apply
+    * @param mode How to fill in samples outside the image
+    * @return int[] the packed output pixels, row by row
+    */
+    public static int[] apply(Image img, Kernel kernel, BorderMode mode) {
+        int width = img.getWidth();
+        int height = img.getHeight();
+        float[] r = convolve(channel(img, 16), width, height, kernel, mode);
+        float[] g = convolve(channel(img, 8), width, height, kernel, mode);
+        float[] b = convolve(channel(img, 0), width, height, kernel, mode);
+        int[] out = new int[r.length];
+        for (int i = 0; i < out.length; i++) {
+            out[i] = Image.pack(clamp(r[i]), clamp(g[i]), clamp(b[i]));
+        }
+        return out;
+    }
+
+    /** Rounds a value to the nearest integer in [0, 255]
+    * @param v The value
+    * @return int the clamped channel value
+    */
+    public static int clamp(float v) {
+        int c = Math.round(v);
+        return c < 0 ? 0 : (c > 255 ? 255 : c);
+    }
+}
@@ -0,0 +1,387 @@
+/* Names: Emma Lee and Rachel Nguyen
+* File: FrameCompressor.java
+* Desc:
+*
+* Compresses a sequence of frames, such as a timelapse or screen
+* captures, by updating the quadtree of the frame before instead
+* of dividing every frame from scratch.
+*
+* Each frame is compared with the one before it in square tiles
+* of DIFF_TILE pixels. Every Node keeps the sums of its channels
+* and of their squares, so a Node that the changed tiles touch
+* gets its new mean color and error from the changed pixels
+* alone. Walking down from the root, only through Nodes that
+* touch a changed tile, a divided Node that is no longer
+* detailed is merged back into a leaf, a leaf that has become
+* detailed is divided again from the pixels it covers, and the
+* rest keep their children. The compressed image is kept from
+* frame to frame and only the leaves that changed are repainted,
+* so a frame costs about as much as the area that changed rather
+* than the size of the frame; comparing the frames is a fast scan.
+*
+* The tree is always the one divide() would build for the frame,
+* every Node split while its error is above QuadTree.THRESHOLD,
+* so each compressed frame is exactly what a full division gives.
+*
+*/
+
+import java.util.Arrays;
+
+public class FrameCompressor {
+    public static final int DIFF_TILE = 16; // the side of the tiles frames are compared in
+    public static final int SUMS = 4; // the sums each Node keeps: red, green, blue and r*r + g*g + b*b
+    public static final double MAX_DROPPED_SHARE = 0.5; // the share of the tree's Nodes merge() may leave behind before compacting
+
+    private LinearQuadTree tree; // the fully divided tree of the last frame; or null before the first frame
+    private int width; // the width of the frames
+    private int height; // the height of the frames
+    private int[] previous; // the pixels of the last frame
+    private int[] current; // the pixels of the frame being compressed
+    private Image compressed; // the last frame compressed, repainted where it changes
+    private long[] sums; // SUMS entries per Node, the sums over its pixels
+    private int dropped; // the Nodes merge() has left in the tree since it was last compacted
+    private final long[] scratch = new long[SUMS]; // the sums of one rectangle
+
+    // the tiles frames are compared in
+    private int tilesWide; // the number of tiles across
+    private int tilesHigh; // the number of tiles down
+    private boolean[] changed; // whether each tile differs from the last frame
+    private int[] changedBefore; // summed-area table of changed, with a zero row and column first
+    private long[] tileChanges; // SUMS entries per changed tile, how much its sums changed
+
+    // what the last frame took
+    private int frames; // the number of frames compressed
+    private int changedTiles; // the number of tiles that differed
+    private int updatedNodes; // the number of Nodes whose sums were updated or built
+    private long repaintedPixels; // the number of pixels of the compressed image painted
+
+    // getters
+    public int getFrames() {
+        return frames;
+    }
+
+    public int getChangedTiles() {
+        return changedTiles;
+    }
+
+    public int getTiles() {
+        return tilesWide * tilesHigh;
+    }
+
+    public int getUpdatedNodes() {
+        return updatedNodes;
+    }
+
+    public long getRepaintedPixels() {
+        return repaintedPixels;
+    }
+
+    /** Returns the fully divided tree of the last frame, which the next frame changes
+    * @return LinearQuadTree the tree, with no image behind it; or null before the first frame
+    */
+    public LinearQuadTree getTree() {
+        return tree;
+    }
+
+    /** Compresses the next frame. The first frame, and any frame of another size
+    * than the one before, is divided from scratch.
+    * @param frame The frame; it is not changed
+    * @return Image the compressed frame, which the next call repaints
+    */
+    public Image next(Image frame) {
+        frames++;
+        current = frame.getPixels();
+        try (Metrics.Timer timer = Metrics.start(Metrics.Stage.DIVIDE)) {
+            timer.addPixels((long) frame.getWidth() * frame.getHeight());
+            if (tree == null || frame.getWidth() != width || frame.getHeight() != height) {
+                start(frame);
+            } else {
+                updatedNodes = 0;
+                repaintedPixels = 0;
+                changedTiles = findChanges();
+                if (changedTiles > 0) {
+                    update(LinearQuadTree.ROOT);
+                    keepChanges();
+                    compressed.invalidateIntegralImage();
+                    if (dropped > MAX_DROPPED_SHARE * tree.size()) {
+                        compact();
+                    }
+                }
+            }
+            if (timer.isOn()) {
+                timer.addTree(tree.getNumSplits(), tree.getNumLeaves(), tree.getLeafDepthHistogram());
+            }
+        }
+        return compressed;
+    }
+
+    /** Divides a first frame from scratch */
+    private void start(Image frame) {
+        width = frame.getWidth();
+        height = frame.getHeight();
+        previous = current.clone();
+        compressed = new Image(width, height);
+        tree = new LinearQuadTree(width, height);
+        sums = new long[SUMS * LinearQuadTree.INITIAL_CAPACITY];
+        dropped = 0;
+        tilesWide = (width + DIFF_TILE - 1) / DIFF_TILE;
+        tilesHigh = (height + DIFF_TILE - 1) / DIFF_TILE;
+        changed = new boolean[tilesWide * tilesHigh];
+        changedBefore = new int[(tilesWide + 1) * (tilesHigh + 1)];
+        tileChanges = new long[SUMS * tilesWide * tilesHigh];
+
+        updatedNodes = 0;
+        repaintedPixels = 0;
+        changedTiles = getTiles();
+        divide(LinearQuadTree.ROOT, frame.getIntegralImage(), 0, 0);
+    }
+
+    /** Builds a Node and, while it is detailed, the Nodes below it, the same way divide() does
+    * @param node The Node, a leaf
+    * @param stats The summed-area tables of a region of the frame holding the Node
+    * @param regionX The x coordinate of the region
+    * @param regionY The y coordinate of the region
+    */
+    private void divide(int node, IntegralImage stats, int regionX, int regionY) {
+        stats.sums(tree.getX(node) - regionX, tree.getY(node) - regionY, tree.getWidth(node), tree.getHeight(node), scratch);
+        System.arraycopy(scratch, 0, sums, SUMS * node, SUMS);
+        setMean(node);
+        updatedNodes++;
+        if (isDetailed(node)) {
+            split(node, stats, regionX, regionY);
+        } else {
+            paint(node);
+        }
+    }
+
+    /** Splits a detailed leaf and builds its children */
+    private void split(int node, IntegralImage stats, int regionX, int regionY) {
+        int first = tree.split(node);
+        if (sums.length < SUMS * tree.size()) {
+            sums = Arrays.copyOf(sums, Math.max(2 * sums.length, SUMS * tree.size()));
+        }
+        for (int child = first; child < first + QuadTree.NUM_CHILDREN; child++) {
+            if (tree.isEmpty(child)) {
+                Arrays.fill(sums, SUMS * child, SUMS * (child + 1), 0);
+            } else {
+                divide(child, stats, regionX, regionY);
+            }
+        }
+    }
+
+    /** Brings a Node that touches a changed tile, and the Nodes below it, up to date
+    * with the frame
+    * @param node The Node
+    */
+    private void update(int node) {
+        updatedNodes++;
+        addChanges(node);
+        int before = tree.getMeanRGB(node);
+        setMean(node);
+        boolean detailed = isDetailed(node);
+
+        if (tree.isLeaf(node)) {
+            if (detailed) { // divide it again from the pixels it covers
+                int x = tree.getX(node);
+                int y = tree.getY(node);
+                int w = tree.getWidth(node);
+                int h = tree.getHeight(node);
+                int[] region = new int[w * h];
+                for (int j = 0; j < h; j++) {
+                    System.arraycopy(current, (y + j) * width + x, region, j * w, w);
+                }
+                split(node, new Image(region, w, h).getIntegralImage(), x, y);
+            } else if (tree.getMeanRGB(node) != before) {
+                paint(node);
+            }
+        } else if (!detailed) {
+            dropped += tree.merge(node);
+            paint(node);
+        } else {
+            int first = tree.getFirstChild(node);
+            for (int child = first; child < first + QuadTree.NUM_CHILDREN; child++) {
+                if (!tree.isEmpty(child) && touchesChange(child)) {
+                    update(child);
+                }
+            }
+        }
+    }
+
+    /** Returns whether a Node is larger than a pixel and its error is above QuadTree.THRESHOLD,
+    * from its sums, exactly as LinearQuadTree decides it from the summed-area tables
+    */
+    private boolean isDetailed(int node) {
+        long count = (long) tree.getWidth(node) * tree.getHeight(node);
+        if (count <= 1) {
+            return false;
+        }
+        int at = SUMS * node;
+        long error = IntegralImage.squaredError(count, sums[at], sums[at + 1], sums[at + 2], sums[at + 3]);
+        return ((double) error) / count > QuadTree.THRESHOLD;
+    }
+
+    /** Sets the mean color of a Node from its sums, truncated as IntegralImage.meanRGB does */
+    private void setMean(int node) {
+        long count = (long) tree.getWidth(node) * tree.getHeight(node);
+        int at = SUMS * node;
+        tree.setMeanRGB(node, Image.pack((int) (sums[at] / count), (int) (sums[at + 1] / count), (int) (sums[at + 2] / count)));
+    }
+
+    /** Fills a leaf's pixels of the compressed image with its mean color */
+    private void paint(int node) {
+        int[] pixels = compressed.getPixels();
+        int x = tree.getX(node);
+        int w = tree.getWidth(node);
+        for (int j = tree.getY(node); j < tree.getY(node) + tree.getHeight(node); j++) {
+            Arrays.fill(pixels, j * width + x, j * width + x + w, tree.getMeanRGB(node));
+        }
+        repaintedPixels += (long) w * tree.getHeight(node);
+    }
+
+    /** Marks the tiles where the frame differs from the last one and works out how much
+    * the sums of each changed tile changed
+    * @return int the number of changed tiles
+    */
+    private int findChanges() {
+        Arrays.fill(changed, false);
+        for (int y = 0; y < height; y++) {
+            int row = y * width;
+            int tileRow = (y / DIFF_TILE) * tilesWide;
+            int x = 0;
+            while (x < width) {
+                int differs = Arrays.mismatch(previous, row + x, row + width, current, row + x, row + width);
+                if (differs < 0) {
+                    break;
+                }
+                int tile = (x + differs) / DIFF_TILE;
+                changed[tileRow + tile] = true;
+                x = (tile + 1) * DIFF_TILE; // the rest of the tile need not be compared
+            }
+        }
+
+        int count = 0;
+        int stride = tilesWide + 1;
+        for (int ty = 0; ty < tilesHigh; ty++) {
+            int rowCount = 0;
+            for (int tx = 0; tx < tilesWide; tx++) {
+                int tile = ty * tilesWide + tx;
+                if (changed[tile]) {
+                    rowCount++;
+                    Arrays.fill(tileChanges, SUMS * tile, SUMS * (tile + 1), 0);
+                    int x = tx * DIFF_TILE;
+                    int y = ty * DIFF_TILE;
+                    addPixelChanges(x, y, Math.min(x + DIFF_TILE, width), Math.min(y + DIFF_TILE, height), tileChanges, SUMS * tile);
+                }
+                changedBefore[(ty + 1) * stride + tx + 1] = changedBefore[ty * stride + tx + 1] + rowCount;
+            }
+            count += rowCount;
+        }
+        return count;
+    }
+
+    /** Returns whether a Node covers any part of a changed tile */
+    private boolean touchesChange(int node) {
+        int stride = tilesWide + 1;
+        int left = tree.getX(node) / DIFF_TILE;
+        int top = tree.getY(node) / DIFF_TILE;
+        int right = (tree.getX(node) + tree.getWidth(node) - 1) / DIFF_TILE + 1;
+        int bottom = (tree.getY(node) + tree.getHeight(node) - 1) / DIFF_TILE + 1;
+        return changedBefore[bottom * stride + right] - changedBefore[bottom * stride + left]
+            - changedBefore[top * stride + right] + changedBefore[top * stride + left] > 0;
+    }
+
+    /** Adds how much the frame changed under a Node to its sums: whole changed tiles
+    * inside it from tileChanges, and the parts of the others pixel by pixel
+    */
+    private void addChanges(int node) {
+        int x0 = tree.getX(node);
+        int y0 = tree.getY(node);
+        int x1 = x0 + tree.getWidth(node);
+        int y1 = y0 + tree.getHeight(node);
+        for (int ty = y0 / DIFF_TILE; ty <= (y1 - 1) / DIFF_TILE; ty++) {
+            for (int tx = x0 / DIFF_TILE; tx <= (x1 - 1) / DIFF_TILE; tx++) {
+                int tile = ty * tilesWide + tx;
+                if (!changed[tile]) {
+                    continue;
+                }
+                int left = tx * DIFF_TILE;
+                int top = ty * DIFF_TILE;
+                int right = Math.min(left + DIFF_TILE, width);
+                int bottom = Math.min(top + DIFF_TILE, height);
+                if (left >= x0 && top >= y0 && right <= x1 && bottom <= y1) {
+                    for (int i = 0; i < SUMS; i++) {
+                        sums[SUMS * node + i] += tileChanges[SUMS * tile + i];
+                    }
+                } else {
+                    addPixelChanges(Math.max(left, x0), Math.max(top, y0), Math.min(right, x1), Math.min(bottom, y1),
+                        sums, SUMS * node);
+                }
+            }
+        }
+    }
+
+    /** Adds how much the sums of a rectangle changed from the last frame to this one
+    * @param x0 The left of the rectangle
+    * @param y0 The top of the rectangle
+    * @param x1 One past the right of the rectangle
+    * @param y1 One past the bottom of the rectangle
+    * @param into The array to add the SUMS changes to
+    * @param at Where in the array they go
+    */
+    private void addPixelChanges(int x0, int y0, int x1, int y1, long[] into, int at) {
+        long r = 0;
+        long g = 0;
+        long b = 0;
+        long squares = 0;
+        for (int j = y0; j < y1; j++) {
+            for (int k = j * width + x0; k < j * width + x1; k++) {
+                int was = previous[k];
+                int is = current[k];
+                if (was != is) {
+                    int r0 = Image.red(was);
+                    int g0 = Image.green(was);
+                    int b0 = Image.blue(was);
+                    int r1 = Image.red(is);
+                    int g1 = Image.green(is);
+                    int b1 = Image.blue(is);
+                    r += r1 - r0;
+                    g += g1 - g0;
+                    b += b1 - b0;
+                    squares += r1 * r1 + g1 * g1 + b1 * b1 - (r0 * r0 + g0 * g0 + b0 * b0);
+                }
+            }
+        }
+        into[at] += r;
+        into[at + 1] += g;
+        into[at + 2] += b;
+        into[at + 3] += squares;
+    }
+
+    /** Copies the changed tiles of this frame over the last one */
+    private void keepChanges() {
+        for (int tile = 0; tile < changed.length; tile++) {
+            if (!changed[tile]) {
+                continue;
+            }
+            int x = (tile % tilesWide) * DIFF_TILE;
+            int w = Math.min(DIFF_TILE, width - x);
+            int y = (tile / tilesWide) * DIFF_TILE;
+            for (int j = y; j < Math.min(y + DIFF_TILE, height); j++) {
+                System.arraycopy(current, j * width + x, previous, j * width + x, w);
+            }
+        }
+    }
+
+    /** Drops the Nodes merge() left behind, moving the sums along with the Nodes */
+    private void compact() {
+        int[] moved = tree.compact();
+        long[] kept = new long[SUMS * Math.max(LinearQuadTree.INITIAL_CAPACITY, tree.size())];
+        for (int node = 0; node < moved.length; node++) {
+            if (moved[node] != LinearQuadTree.NO_CHILD) {
+                System.arraycopy(sums, SUMS * node, kept, SUMS * moved[node], SUMS);
+            }
+        }
+        sums = kept;
+        dropped = 0;
+    }
+}
@@ -4,34 +4,43 @@
 *
 * A class to define an Image.
 *
-* An Image contains a 2D array of color as the
-* underlying storage. It supports image processing
+* An Image contains an array of packed ARGB ints
+* (row by row) as the underlying storage. It supports image processing
 * (read and write) and filters (negative, grayscale,
-* tint, and random neighbor).
+* tint, random neighbor, and convolutions such as blur,
+* sharpen and Sobel).
 *
 */
 
 import java.io.*;
 import java.util.*;
 import java.awt.Color;
+import java.util.function.IntUnaryOperator;
 
 public class Image {
-    public static final String FILE_INFO_DELIMITER = " "; // the String used to delimit file info
-    public static final int WIDTH = 0; // index of the width info in img size info line
-    public static final int HEIGHT = 1; // index of height info in img size info line
-    public static final int NUM_HEADER_LINES = 3; // number of lines containing header info
-    public static final int IMG_SIZE_LINE = 1; // which line contains image size (w and h) info
+    public static final int OPAQUE = 0xFF000000; // the alpha bits of every packed pixel
+    public static final int WHITE = 0xFFFFFFFF; // packed white
+    public static final int BLACK = 0xFF000000; // packed black
+    public static final int RED = 0xFFFF0000; // packed red
+    public static final long DEFAULT_SEED = 0; // the seed of the random neighbor filter when none is given
+    public static final long GOLDEN_GAMMA = 0x9E3779B97F4A7C15L; // the odd constant SplitMix64 steps its counter by
+    public static final int NEIGHBOR_BITS = 3; // the random bits that pick one of the 8 neighbors
+    private static final int[] NEIGHBOR_ROWS = {-1, -1, -1, 0, 0, 1, 1, 1}; // the row offsets of the 8 neighbors
+    private static final int[] NEIGHBOR_COLS = {-1, 0, 1, -1, 1, -1, 0, 1}; // the column offsets of the 8 neighbors
     
-    private Color[][] img; // the array of RGB colors as the underlying storage
+    private int[] pixels; // the packed ARGB pixels, row by row, as the underlying storage
     private int width; // the width of the image
     private int height; // the height of the image
+    private int firstRow; // the row of the whole image this one starts at, when it is a strip of a larger image
+    private IntegralImage integral; // summed-area tables of the pixels, built on demand
+    private int[] spare; // a raster the random neighbor filter writes into and then swaps with pixels; or null
     
     /** Creates an Image with the given filename
     * @param filename
     */
     public Image(String filename) {
         try {
-            img = readImg(filename);
+            readImg(filename);
             System.out.println("successfully read");
         } catch (IOException e) {
             System.out.println(e);
@@ -40,19 +49,33 @@ public class Image {
     }
     
     /** Creates an Image with the given Color matrix
-    * @param arr The given Color matrix
+    * @param arr The given Color matrix, indexed [row][col]
     */
     public Image(Color[][] arr) {
-        img = arr;
-        width = arr[0].length;
-        height = arr.length;
+        setImg(arr);
     }
     
-    // getters
-    public Color[][] getImg() {
-        return img;
+    /** Creates a black Image of the given size
+    * @param width The width of the image
+    * @param height The height of the image
+    */
+    public Image(int width, int height) {
+        this(new int[width * height], width, height);
+        Arrays.fill(pixels, BLACK);
     }
     
+    /** Creates an Image backed by the given packed pixels (not copied)
+    * @param pixels The packed ARGB pixels, row by row
+    * @param width The width of the image
+    * @param height The height of the image
+    */
+    public Image(int[] pixels, int width, int height) {
+        this.pixels = pixels;
+        this.width = width;
+        this.height = height;
+    }
+    
+    // getters
     public int getWidth() {
         return width;
     }
@@ -61,8 +84,68 @@ public class Image {
         return height;
     }
     
+    /** Returns the packed pixels backing this image. Writes go straight to the image.
+    * @return int[] The packed ARGB pixels, row by row
+    */
+    public int[] getPixels() {
+        return pixels;
+    }
+    
+    /** Returns the summed-area tables of the image, building them on first use
+    * @return IntegralImage the summed-area tables of the current pixels
+    */
+    public IntegralImage getIntegralImage() {
+        if (integral == null) {
+            try (Metrics.Timer timer = Metrics.start(Metrics.Stage.STATISTICS)) {
+                timer.addPixels(pixels.length);
+                integral = new IntegralImage(this);
+            }
+        }
+        return integral;
+    }
+    
+    /** Discards the summed-area tables. Must be called after writing
+    * to the array returned by getPixels().
+    */
+    public void invalidateIntegralImage() {
+        integral = null;
+    }
+    
+    /** Marks the image as a strip of a larger image, so that filters which depend on
+    * where a pixel is, like the random neighbor filter, treat it as the larger image would
+    * @param firstRow The row of the larger image that this image's first row is
+    */
+    public void setFirstRow(int firstRow) {
+        this.firstRow = firstRow;
+    }
+    
+    /** Returns a copy of the image as a Color matrix. Kept for compatibility;
+    * the pixel accessors below avoid allocating a Color per pixel.
+    * @return Color[][] the matrix of colors, indexed [row][col]
+    */
+    public Color[][] getImg() {
+        Color[][] matrix = new Color[height][width];
+        for (int i = 0; i < height; i++) {
+            for (int j = 0; j < width; j++) {
+                matrix[i][j] = new Color(pixels[i * width + j]);
+            }
+        }
+        return matrix;
+    }
+    
+    /** Replaces the image with the given Color matrix
+    * @param matrix The Color matrix, indexed [row][col]
+    */
     public void setImg(Color[][] matrix) {
-        img = matrix;
+        height = matrix.length;
+        width = matrix[0].length;
+        pixels = new int[width * height];
+        integral = null;
+        for (int i = 0; i < height; i++) {
+            for (int j = 0; j < width; j++) {
+                pixels[i * width + j] = matrix[i][j].getRGB();
+            }
+        }
     }
     
     /** Get one pixel of color of the image
@@ -71,55 +154,102 @@ public class Image {
     * @return Color The color of the pixel
     */
     public Color getPixel(int x, int y) {
-        return img[x][y];
+        return new Color(pixels[x * width + y]);
     }
     
-    /** Read a PPM file into an array of colors
+    /** Get one packed pixel of the image
+    * @param row the row of the pixel
+    * @param col the column of the pixel
+    * @return int The packed ARGB color of the pixel
+    */
+    public int getRGB(int row, int col) {
+        return pixels[row * width + col];
+    }
+    
+    /** Set one packed pixel of the image
+    * @param row the row of the pixel
+    * @param col the column of the pixel
+    * @param argb The packed ARGB color
+    */
+    public void setRGB(int row, int col, int argb) {
+        pixels[row * width + col] = argb;
+        integral = null;
+    }
+    
+    /** Returns a deep copy of the image
+    * @return Image the copy
+    */
+    public Image copy() {
+        Image copy = new Image(pixels.clone(), width, height);
+        copy.firstRow = firstRow;
+        return copy;
+    }
+    
+    /** Packs rgb values into an opaque ARGB integer
+    * @param r the red value
+    * @param g the green value
+    * @param b the blue value
+    * @return int the packed color
+    */
+    public static int pack(int r, int g, int b) {
+        return OPAQUE | (r << 16) | (g << 8) | b;
+    }
+    
+    // channel accessors of a packed color
+    public static int red(int argb) {
+        return (argb >> 16) & 0xFF;
+    }
+    
+    public static int green(int argb) {
+        return (argb >> 8) & 0xFF;
+    }
+    
+    public static int blue(int argb) {
+        return argb & 0xFF;
+    }
+    
+    /** Read a PPM file (P3 or P6), or a quadtree file (.qtc), into the underlying storage
     * @param filename the filename to be read
-    * @return Color[][] the matrix of colors
     */
-    public Color[][] readImg(String filename) throws IOException{
-        Scanner in = new Scanner(new File(filename));
-        
-        // get header info (width and height)
-        for (int i = 0; i < NUM_HEADER_LINES; i++) {
-            if (i == IMG_SIZE_LINE) {
-                String[] imgSize = in.nextLine().split(FILE_INFO_DELIMITER);
-                width = Integer.parseInt(imgSize[WIDTH]);
-                height = Integer.parseInt(imgSize[HEIGHT]);
-            } else {
-                in.nextLine();
-            }
-        }
-        Color[][] result = new Color[width][height];
-        
-        // store everything to the underlying storage
-        for (int i = 0; i < height; i++) { // loop through rows
-            for (int j = 0; j < width; j++) { // loop through cols
-                int r = in.nextInt();
-                int g = in.nextInt();
-                int b = in.nextInt();
-                Color color = new Color(r, g, b);
-                result[i][j] = color;
-            }
+    public void readImg(String filename) throws IOException{
+        Image read;
+        try (Metrics.Timer timer = Metrics.start(Metrics.Stage.READ)) {
+            read = filename.endsWith(QuadTreeCodec.FILETYPE) ? QuadTreeCodec.read(filename) : PPM.read(filename);
+            timer.addBytes(new File(filename).length());
+            timer.addPixels(read.pixels.length);
         }
-        return result;
+        pixels = read.pixels;
+        width = read.width;
+        height = read.height;
+        integral = null;
     }
     
-    /** Write an image to a PPM file
+    /** Write an image to an ASCII (P3) PPM file
     * @param filename the filename to be written to
     */
     public void writeImg(String filename) throws IOException{
-        PrintWriter out = new PrintWriter(filename);
-        out.print("P3 ");
-        out.println(img[0].length + " " + img.length + " 255");
-        for (int i = 0; i < img.length; i++) {
-            for (int j = 0; j < img[i].length; j++) {
-                out.print(img[i][j].getRed() + " " + img[i][j].getGreen() + " " + img[i][j].getBlue() + " ");
-            }
-            out.println();
+        writeImg(filename, false);
+    }
+    
+    /** Write an image to a PPM file
+    * @param filename the filename to be written to
+    * @param binary True to write a binary (P6) file; false for ASCII (P3)
+    */
+    public void writeImg(String filename, boolean binary) throws IOException{
+        writeImg(null, filename, binary);
+    }
+    
+    /** Write an image to a PPM file with an outline drawn over it, leaving the image unchanged
+    * @param outline The outline of the image's quadtree; or null for none
+    * @param filename the filename to be written to
+    * @param binary True to write a binary (P6) file; false for ASCII (P3)
+    */
+    public void writeImg(Outline outline, String filename, boolean binary) throws IOException{
+        try (Metrics.Timer timer = Metrics.start(Metrics.Stage.WRITE)) {
+            PPM.write(this, outline, filename, binary);
+            timer.addBytes(new File(filename).length());
+            timer.addPixels(pixels.length);
         }
-        out.close();
         System.out.println("successfully written to " + filename);
     }
     
@@ -153,114 +283,223 @@ public class Image {
         if (!checkSize()) {
             int max = Math.max(height, width); // pick the greater side to be the side of the new square
             int side = nearestPowerOfTwo(max);
-            Color[][] padded = new Color[side][side]; // the underlying storage for the new image
+            int[] padded = new int[side * side]; // the underlying storage for the new image
+            Arrays.fill(padded, WHITE); // the pixels outside the original image are white
             // copy to the new array
             for (int i = 0; i < height; i++) {
-                for (int j = 0; j < width; j++) {
-                    padded[i][j] = img[i][j];
-                }
+                System.arraycopy(pixels, i * width, padded, i * side, width);
             }
-            // fill in the null pixels with white
-            for (int i = 0; i < side; i++) {
-                for (int j = 0; j < side; j++) {
-                    if (padded[i][j] == null) {
-                        padded[i][j] = Color.white;
-                    }
+            return new Image(padded, side, side);
+        }
+        return this;
+    }
+    
+    // the point filters, as functions of one packed pixel so that a Pipeline can fuse them
+    
+    /** A function of one packed pixel that can also filter a run of pixels at once,
+    * so that a filter with a vector kernel in PixelOps can use it
+    */
+    public interface PointFilter extends IntUnaryOperator {
+        /** Filters pixels[from, to) in place
+        * @param pixels The packed pixels
+        * @param from The first pixel of the run
+        * @param to One past the last pixel of the run
+        */
+        default void applyTo(int[] pixels, int from, int to) {
+            for (int k = from; k < to; k++) {
+                pixels[k] = applyAsInt(pixels[k]);
+            }
+        }
+        
+        /** Returns the filter that applies this filter and then another, a run of pixels at a time
+        * @param next The filter to apply second
+        * @return PointFilter the fused filter
+        */
+        default PointFilter then(PointFilter next) {
+            PointFilter first = this;
+            return new PointFilter() {
+                @Override
+                public int applyAsInt(int color) {
+                    return next.applyAsInt(first.applyAsInt(color));
                 }
+                
+                @Override
+                public void applyTo(int[] pixels, int from, int to) {
+                    first.applyTo(pixels, from, to);
+                    next.applyTo(pixels, from, to);
+                }
+            };
+        }
+    }
+    
+    /** Flips every channel */
+    public static final PointFilter NEGATIVE = new PointFilter() {
+        @Override
+        public int applyAsInt(int color) {
+            return PixelOps.negative(color);
+        }
+        
+        @Override
+        public void applyTo(int[] pixels, int from, int to) {
+            PixelOps.negative(pixels, from, to);
+        }
+    };
+    
+    /** Replaces a pixel with its weighted gray */
+    public static final PointFilter GRAYSCALE = new PointFilter() {
+        @Override
+        public int applyAsInt(int color) {
+            return PixelOps.gray(color);
+        }
+        
+        @Override
+        public void applyTo(int[] pixels, int from, int to) {
+            PixelOps.grayscale(pixels, from, to);
+        }
+    };
+    
+    /** Returns the point filter that tints a pixel with the given color
+    * @param tint The given tint color
+    * @return PointFilter the tint filter
+    */
+    public static PointFilter tintFilter(Color tint) {
+        // pick a tint color
+        int R = tint.getRed();
+        int G = tint.getGreen();
+        int B = tint.getBlue();
+        
+        return new PointFilter() {
+            @Override
+            public int applyAsInt(int color) {
+                return PixelOps.tint(color, R, G, B);
             }
-            return new Image(padded);
+            
+            @Override
+            public void applyTo(int[] pixels, int from, int to) {
+                PixelOps.tint(pixels, from, to, R, G, B);
+            }
+        };
+    }
+    
+    /** Applies a point filter to every pixel of the image
+    * @param filter The function from a packed pixel to its filtered value
+    */
+    public void applyPointFilter(PointFilter filter) {
+        integral = null;
+        try (Metrics.Timer timer = Metrics.start(Metrics.Stage.FILTER)) {
+            timer.addPixels(pixels.length);
+            TileScheduler.applyPointFilter(pixels, width, height, filter);
         }
-        return this;
     }
     
     /** Applies negative filter to the image */
     public void negative() {
-        for (int i = 0; i < img.length; i++) {
-            for (int j = 0; j < img[i].length; j++) {
-                // get the rgb integer
-                Color color = img[i][j];
-                int r = color.getRed();
-                int g = color.getGreen();
-                int b = color.getBlue();
-                // convert to negative
-                r = 255 - r;
-                g = 255 - g;
-                b = 255 - b;
-                color = new Color(r,g,b);
-                img[i][j] = color;
-            }
-        }
+        applyPointFilter(NEGATIVE);
     }
     
     /** Applies grayscale filter to the image */
     public void grayscale() {
-        for (int i = 0; i < img.length; i++) {
-            for (int j = 0; j < img[i].length; j++) {
-                // get the rgb integer
-                Color color = img[i][j];
-                int r = color.getRed();
-                int g = color.getGreen();
-                int b = color.getBlue();
-                // convert to negative
-                int c = (int) (r*0.3+g*0.59+b*0.11);
-                color = new Color(c,c,c);
-                img[i][j] = color;
-            }
-        }
+        applyPointFilter(GRAYSCALE);
     }
     
     /** Applies a tint filter to an image using the given tint color
     * @param tint The given tint color
     */
     public void tint(Color tint) {
-        for (int i = 0; i < img.length; i++) {
-            for (int j = 0; j < img[i].length; j++) {
-                Color color = img[i][j];
-                
-                // get rgb values
-                int r = color.getRed();
-                int g = color.getGreen();
-                int b = color.getBlue();
-                
-                // pick a tint color
-                int R = tint.getRed();
-                int G = tint.getGreen();
-                int B = tint.getBlue();
-                
-                // modify rgb values
-                r = (r*R)/255; // r/255*R makes r/255 a double, which makes entire thing a double, then it gets truncated
-                g = (g*G)/255;
-                b = (b*B)/255;
-                
-                color = new Color(r, g, b); // reset the color
-                
-                // set new rgb
-                img[i][j] = color;
+        applyPointFilter(tintFilter(tint));
+    }
+    
+    /** Convolves every channel of the image with the given kernel
+    * @param kernel The kernel to apply
+    * @param mode How to fill in pixels outside the image
+    */
+    public void convolve(Kernel kernel, Convolution.BorderMode mode) {
+        try (Metrics.Timer timer = Metrics.start(Metrics.Stage.FILTER)) {
+            timer.addPixels(pixels.length);
+            pixels = Convolution.apply(this, kernel, mode);
+        }
+        integral = null;
+    }
+    
+    /** Applies a Gaussian blur filter to the image
+    * @param size The side length of the kernel, which must be odd; sigma is a sixth of it
+    */
+    public void blur(int size) {
+        convolve(Kernel.gaussian(size, size / 6.0), Convolution.BorderMode.CLAMP);
+    }
+    
+    /** Applies a sharpen filter to the image */
+    public void sharpen() {
+        convolve(Kernel.sharpen(), Convolution.BorderMode.CLAMP);
+    }
+    
+    /** Applies a Sobel filter, replacing each pixel with the gradient magnitude of its luminance */
+    public void sobel() {
+        try (Metrics.Timer timer = Metrics.start(Metrics.Stage.FILTER)) {
+            timer.addPixels(pixels.length);
+            float[] luminance = Convolution.luminance(this);
+            float[] gx = Convolution.convolve(luminance, width, height, Kernel.sobelX(), Convolution.BorderMode.CLAMP);
+            float[] gy = Convolution.convolve(luminance, width, height, Kernel.sobelY(), Convolution.BorderMode.CLAMP);
+            for (int i = 0; i < pixels.length; i++) {
+                int c = Convolution.clamp((float) Math.sqrt(gx[i] * gx[i] + gy[i] * gy[i]));
+                pixels[i] = pack(c, c, c);
             }
         }
+        integral = null;
+    }
+    
+    /** Applies random neighbor convolution filter to an image with the default seed */
+    public void randomNeighbor() {
+        randomNeighbor(DEFAULT_SEED);
     }
     
     /** Applies random neighbor convolution filter to an image
-    * Takes one pixel, picks one of its neighbors randomly, and
-    * sets itself to the color of its randomly chosen neighbor
+    * Takes one pixel, picks one of its 8 neighbors randomly, and
+    * sets itself to the color of its randomly chosen neighbor.
+    * The choice is a hash of the seed and the pixel's coordinates, so the
+    * same seed gives the same image however many threads or tiles run it.
+    * The result is written into a spare raster that is kept for the next
+    * call, so the array getPixels() returned before is reused by it.
+    * @param seed The seed of the choices
     */
-    public void randomNeighbor() {
-        Color[][] matrix = new Color[width][height];
-        for (int i = 0; i < height; i++) { // for each pixel in node
-            for (int j = 0; j < width; j++) {
-                if (i == 0 || i == height - 1 || j == 0 || j == width - 1) { // if edge
-                    matrix[i][j] = img[i][j];
-                } else { // not edge node
-                    Color[] neighborColors = {img[i-1][j-1], img[i][j-1], img[i+1][j-1],
-                        img[i-1][j], img[i][j], img[i+1][j],
-                        img[i-1][j+1], img[i][j+1], img[i+1][j+1]};
-                        
-                        
-                        int random = (int) (Math.random() * 8) + 0;     
-                        matrix[i][j] = neighborColors[random];
+    public void randomNeighbor(long seed) {
+        try (Metrics.Timer timer = Metrics.start(Metrics.Stage.FILTER)) {
+            timer.addPixels(pixels.length);
+            if (spare == null || spare.length != pixels.length) {
+                spare = new int[pixels.length];
+            }
+            int top = firstRow;
+            TileScheduler.applyNeighborhoodFilter(pixels, width, height, 1, (src, w, h, tile, dst) -> {
+                for (int i = tile.getY(); i < tile.getY() + tile.getHeight(); i++) { // for each pixel in tile
+                    for (int j = tile.getX(); j < tile.getX() + tile.getWidth(); j++) {
+                        if (i == 0 || i == h - 1 || j == 0 || j == w - 1) { // if edge
+                            dst[i * w + j] = src[i * w + j];
+                        } else { // not edge node
+                            int k = neighbor(seed, top + i, j);
+                            dst[i * w + j] = src[(i + NEIGHBOR_ROWS[k]) * w + (j + NEIGHBOR_COLS[k])];
+                        }
                     }
                 }
-            }
-            setImg(matrix);
+            }, spare);
+            int[] filtered = spare;
+            spare = pixels;
+            pixels = filtered;
         }
-    }
\ No newline at end of file
+        integral = null;
+    }
+    
+    /** Picks the neighbor of a pixel, by the SplitMix64 mix of a counter made of
+    * the pixel's coordinates, so no state is shared between pixels or threads
+    * @param seed The seed of the choices
+    * @param row The row of the pixel
+    * @param col The column of the pixel
+    * @return int the index of the neighbor, 0 to 7
+    */
+    public static int neighbor(long seed, int row, int col) {
+        long z = seed + GOLDEN_GAMMA * ((((long) row) << Integer.SIZE | (col & 0xFFFFFFFFL)) + 1);
+        z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+        z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+        z = z ^ (z >>> 31);
+        return (int) (z >>> (Long.SIZE - NEIGHBOR_BITS));
+    }
+}
@@ -0,0 +1,135 @@
+/* Names: Emma Lee and Rachel Nguyen
+* File: IntegralImage.java
+* Desc:
+*
+* A class to define the summed-area tables of an Image.
+*
+* Holds per-channel running sums and a running sum of squares
+* so that the mean color and mean squared error of any
+* rectangle can be looked up in constant time.
+*
+*/
+
+public class IntegralImage {
+    private final int stride; // the width of each table, one more than the image width
+    private final long[] red; // summed-area table of the red channel
+    private final long[] green; // summed-area table of the green channel
+    private final long[] blue; // summed-area table of the blue channel
+    private final long[] squares; // summed-area table of r*r + g*g + b*b
+
+    /** Builds the summed-area tables of the given image in one pass
+    * @param img The image to be summed
+    */
+    public IntegralImage(Image img) {
+        int width = img.getWidth();
+        int height = img.getHeight();
+        int[] pixels = img.getPixels();
+        stride = width + 1;
+        int cells = stride * (height + 1);
+        red = new long[cells];
+        green = new long[cells];
+        blue = new long[cells];
+        squares = new long[cells];
+
+        // row 0 and column 0 stay zero so lookups need no bounds checks
+        for (int y = 0; y < height; y++) {
+            long rowRed = 0;
+            long rowGreen = 0;
+            long rowBlue = 0;
+            long rowSquares = 0;
+            int above = y * stride + 1;
+            int here = above + stride;
+            for (int x = 0; x < width; x++) {
+                int color = pixels[y * width + x];
+                int r = Image.red(color);
+                int g = Image.green(color);
+                int b = Image.blue(color);
+                rowRed += r;
+                rowGreen += g;
+                rowBlue += b;
+                rowSquares += r * r + g * g + b * b;
+                red[here + x] = red[above + x] + rowRed;
+                green[here + x] = green[above + x] + rowGreen;
+                blue[here + x] = blue[above + x] + rowBlue;
+                squares[here + x] = squares[above + x] + rowSquares;
+            }
+        }
+    }
+
+    /** Returns the sum of a table over a rectangle */
+    private long sum(long[] table, int x, int y, int w, int h) {
+        int top = y * stride + x;
+        int bottom = (y + h) * stride + x;
+        return table[bottom + w] - table[bottom] - table[top + w] + table[top];
+    }
+
+    /** Returns the mean color of a rectangle, each channel truncated toward zero
+    * @param x The x coordinate of the upper left pixel
+    * @param y The y coordinate of the upper left pixel
+    * @param w The width of the rectangle
+    * @param h The height of the rectangle
+    * @return int The packed mean color
+    */
+    public int meanRGB(int x, int y, int w, int h) {
+        long count = (long) w * h;
+        return Image.pack((int) (sum(red, x, y, w, h) / count),
+            (int) (sum(green, x, y, w, h) / count), (int) (sum(blue, x, y, w, h) / count));
+    }
+
+    /** Returns the channel sums of a rectangle
+    * @param x The x coordinate of the upper left pixel
+    * @param y The y coordinate of the upper left pixel
+    * @param w The width of the rectangle
+    * @param h The height of the rectangle
+    * @param sums The array to write the sums of red, green, blue and r*r + g*g + b*b to
+    */
+    public void sums(int x, int y, int w, int h, long[] sums) {
+        sums[0] = sum(red, x, y, w, h);
+        sums[1] = sum(green, x, y, w, h);
+        sums[2] = sum(blue, x, y, w, h);
+        sums[3] = sum(squares, x, y, w, h);
+    }
+
+    /** Returns the squared error of a rectangle as compared to its (truncated) mean color,
+    * summed over every pixel and channel.
+    * @param x The x coordinate of the upper left pixel
+    * @param y The y coordinate of the upper left pixel
+    * @param w The width of the rectangle
+    * @param h The height of the rectangle
+    * @return long The squared error
+    */
+    public long squaredError(int x, int y, int w, int h) {
+        return squaredError((long) w * h, sum(red, x, y, w, h), sum(green, x, y, w, h), sum(blue, x, y, w, h),
+            sum(squares, x, y, w, h));
+    }
+
+    /** Returns the squared error of a set of pixels as compared to their (truncated) mean color,
+    * from the sums of their channels and squares.
+    * Uses sum((v - m)^2) = sum(v^2) - 2m*sum(v) + n*m^2, which is exact in integers.
+    * @param count The number of pixels
+    * @param sumRed The sum of the red channel
+    * @param sumGreen The sum of the green channel
+    * @param sumBlue The sum of the blue channel
+    * @param sumSquares The sum of r*r + g*g + b*b
+    * @return long The squared error
+    */
+    public static long squaredError(long count, long sumRed, long sumGreen, long sumBlue, long sumSquares) {
+        long meanRed = sumRed / count;
+        long meanGreen = sumGreen / count;
+        long meanBlue = sumBlue / count;
+        return sumSquares
+            - 2 * (meanRed * sumRed + meanGreen * sumGreen + meanBlue * sumBlue)
+            + count * (meanRed * meanRed + meanGreen * meanGreen + meanBlue * meanBlue);
+    }
+
+    /** Returns the mean squared error of a rectangle as compared to its (truncated) mean color
+    * @param x The x coordinate of the upper left pixel
+    * @param y The y coordinate of the upper left pixel
+    * @param w The width of the rectangle
+    * @param h The height of the rectangle
+    * @return double The squared error over the number of pixels
+    */
+    public double meanSquaredError(int x, int y, int w, int h) {
+        return ((double) squaredError(x, y, w, h)) / ((long) w * h);
+    }
+}
@@ -0,0 +1,443 @@
+/* Names: Emma Lee and Rachel Nguyen
+* File: Job.java
+* Desc:
+*
+* One run of the program over one image: the options given by
+* the flags and the work they ask for.
+*
+* Every option lives in the Job rather than in static fields, so
+* several Jobs can run at once, and a failure is thrown to the
+* caller instead of ending the program. A Job reads its input,
+* processes it, and hands each output to a Sink, which either
+* writes it straight away or keeps it to be written later.
+*
+*/
+
+import java.io.ByteArrayOutputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+
+public class Job {
+    private String filename = ""; // the filename user enters after flag -i
+    private String outputFilename = "out"; // the root of the output filenames, user enters after flag -o; or "out" by default
+    private boolean toOutline; // check whether user enters -t
+    private boolean toCompress; // check whether user enters -c
+    private boolean toEdgeDetect; // check whether user enters -e
+    private boolean toFilter; // check whether user enters -x
+    private long seed = Image.DEFAULT_SEED; // the seed of -x user enters after flag -g; or the default seed if not given
+    private boolean toWriteBinary; // check whether user enters -b
+    private boolean toRefineProgressively; // check whether user enters -p
+    private boolean toWriteTree; // check whether user enters -z
+    private boolean toCache; // check whether user enters -k
+    private double minPsnr = Double.POSITIVE_INFINITY; // the PSNR user enters after flag -q; or infinite if not given
+    private long maxBytes = Long.MAX_VALUE; // the size limit user enters after flag -l; or no limit if not given
+    private int[] viewport; // x, y, width, height and scale user enters after flag -v; or null if not given
+    private Pipeline filters; // the filter chain user enters after flag -f; or null if not given
+    private long memoryBudget; // the budget in megabytes user enters after flag -m; or 0 (whole image in memory) by default
+    private int numThreads = 1; // the number of threads user enters after flag -j; or 1 (sequential) by default
+    private FrameCompressor frames; // the frame sequence the image belongs to if user enters -u; or null if not given
+
+    /** Receives the outputs of a Job */
+    public interface Sink {
+        /** Receives an output image. The Job does not change the image afterwards,
+        * so it may be written later.
+        * @param img The image
+        * @param outline The outline to draw over the image when it is written; or null for none
+        * @param filename the filename to be written to
+        * @param binary True to write P6; false to write P3
+        */
+        void write(Image img, Outline outline, String filename, boolean binary) throws IOException;
+
+        /** Receives an output image with no outline, which the Job does not change afterwards
+        * @param img The image
+        * @param filename the filename to be written to
+        * @param binary True to write P6; false to write P3
+        */
+        default void write(Image img, String filename, boolean binary) throws IOException {
+            write(img, null, filename, binary);
+        }
+
+        /** Receives an output file that is already encoded, such as a .qtc file
+        * @param bytes The contents of the file
+        * @param filename the filename to be written to
+        */
+        void write(byte[] bytes, String filename) throws IOException;
+    }
+
+    /** Writes every output as soon as it is received */
+    public static final Sink DIRECT = new Sink() {
+        @Override
+        public void write(Image img, Outline outline, String filename, boolean binary) throws IOException {
+            img.writeImg(outline, filename, binary);
+        }
+
+        @Override
+        public void write(byte[] bytes, String filename) throws IOException {
+            writeBytes(bytes, filename);
+        }
+    };
+
+    /** Writes an encoded file
+    * @param bytes The contents of the file
+    * @param filename the filename to be written to
+    */
+    public static void writeBytes(byte[] bytes, String filename) throws IOException {
+        try (Metrics.Timer timer = Metrics.start(Metrics.Stage.WRITE);
+            OutputStream out = new FileOutputStream(filename)) {
+            timer.addBytes(bytes.length);
+            out.write(bytes);
+        }
+        System.out.println("successfully written to " + filename);
+    }
+
+    /** Reads in flag information
+    * @param args The flag information to be read
+    * @return Job the Job the flags describe
+    */
+    public static Job parse(String[] args) {
+        Job job = new Job();
+        for (int i = 0; i < args.length; i++) {
+            String str = args[i];
+            if (str.compareTo(Main.OUTLINE_FLAG) == 0) {
+                job.toOutline = true;
+            }
+            if (str.compareTo(Main.COMPRESSION_FLAG) == 0) {
+                job.toCompress = true;
+            }
+            if (str.compareTo(Main.EDGE_DETECTION_FLAG) == 0) {
+                job.toEdgeDetect = true;
+            }
+            if (str.compareTo(Main.RANDOM_NEIGHBOR_FLAG) == 0) {
+                job.toFilter = true;
+            }
+            if (str.compareTo(Main.SEED_FLAG) == 0) {
+                job.seed = Long.parseLong(args[i + 1]);
+            }
+            if (str.compareTo(Main.BINARY_OUTPUT_FLAG) == 0) {
+                job.toWriteBinary = true;
+            }
+            if (str.compareTo(Main.PROGRESSIVE_FLAG) == 0) {
+                job.toRefineProgressively = true;
+            }
+            if (str.compareTo(Main.THREADS_FLAG) == 0) {
+                job.numThreads = Integer.parseInt(args[i + 1]);
+                if (job.numThreads < 1) {
+                    throw new IllegalArgumentException("thread count must be positive: " + job.numThreads);
+                }
+            }
+            if (str.compareTo(Main.FILTER_CHAIN_FLAG) == 0) {
+                job.filters = Pipeline.parse(args[i + 1]);
+            }
+            if (str.compareTo(Main.QUALITY_FLAG) == 0) {
+                job.minPsnr = Double.parseDouble(args[i + 1]);
+            }
+            if (str.compareTo(Main.SIZE_LIMIT_FLAG) == 0) {
+                job.maxBytes = Long.parseLong(args[i + 1]);
+            }
+            if (str.compareTo(Main.TREE_OUTPUT_FLAG) == 0) {
+                job.toWriteTree = true;
+            }
+            if (str.compareTo(Main.VIEWPORT_FLAG) == 0) {
+                String[] parts = args[i + 1].split(Main.VIEWPORT_DELIMITER);
+                if (parts.length != 4 && parts.length != 5) {
+                    throw new IllegalArgumentException("viewport must be x,y,w,h[,scale]: " + args[i + 1]);
+                }
+                job.viewport = new int[] {0, 0, 0, 0, 1};
+                for (int j = 0; j < parts.length; j++) {
+                    job.viewport[j] = Integer.parseInt(parts[j].trim());
+                }
+            }
+            if (str.compareTo(Main.FRAMES_FLAG) == 0) {
+                job.frames = new FrameCompressor();
+            }
+            if (str.compareTo(Main.CACHE_FLAG) == 0) {
+                job.toCache = true;
+                TreeCache.setDirectory(args[i + 1]);
+            }
+            if (str.compareTo(Main.MEMORY_BUDGET_FLAG) == 0) {
+                job.memoryBudget = Long.parseLong(args[i + 1]);
+            }
+            if (str.compareTo(Main.INPUT_FLAG) == 0) {
+                job.filename = args[i + 1];
+            }
+            if (str.compareTo(Main.OUTPUT_FILENAME_FLAG) == 0) {
+                job.outputFilename = args[i + 1];
+            }
+        }
+        return job;
+    }
+
+    // getters
+    public String getFilename() {
+        return filename;
+    }
+
+    public String getOutputFilename() {
+        return outputFilename;
+    }
+
+    // setters
+    public void setFilename(String filename) {
+        this.filename = filename;
+    }
+
+    public void setOutputFilename(String outputFilename) {
+        this.outputFilename = outputFilename;
+    }
+
+    /** Makes the image the next frame of a sequence, compressed by updating the
+    * quadtree of the frame before it
+    * @param frames The sequence
+    */
+    public void setFrames(FrameCompressor frames) {
+        this.frames = frames;
+    }
+
+    /** Returns the filename of one compression level's output
+    * @param level The index of the compression level
+    * @param filetype The file type of the output
+    * @return String the filename
+    */
+    private String levelFilename(int level, String filetype) {
+        return outputFilename + Main.OUTPUT_FILENAME_SEPARATOR + (level + 1) + filetype;
+    }
+
+    /** Runs the whole Job, writing each output as soon as it is ready */
+    public void run() throws IOException {
+        process(read(), DIRECT);
+    }
+
+    /** Reads the input image
+    * @return Image the image; or null if the Job reads its input as it goes,
+    * as it does in strips with -m and as a tree for -v with a .qtc input
+    */
+    public Image read() throws IOException {
+        if (viewport != null ? filename.endsWith(QuadTreeCodec.FILETYPE) : memoryBudget > 0) {
+            return null;
+        }
+        Image img = new Image(1, 1);
+        img.readImg(filename);
+        System.out.println("successfully read");
+        return img;
+    }
+
+    /** Does the work the flags ask for
+    * @param original The image from read(); it is changed
+    * @param sink The receiver of the outputs
+    */
+    public void process(Image original, Sink sink) throws IOException {
+        if (viewport != null) {
+            renderViewport(original, sink);
+            return;
+        }
+        if (memoryBudget > 0) {
+            processTiled();
+            return;
+        }
+
+        if (filters != null) {
+            filters.apply(original);
+
+            if (!toCompress && !toEdgeDetect && !toFilter) { // the filter chain is the whole job
+                sink.write(original, outputFilename + Main.FILETYPE, toWriteBinary);
+                return;
+            }
+        }
+
+        if (toCompress && frames != null) {
+            compressFrame(original, sink);
+            return;
+        }
+
+        if (toCompress && (minPsnr < Double.POSITIVE_INFINITY || maxBytes < Long.MAX_VALUE)) {
+            compressToTarget(original, sink);
+            return;
+        }
+
+        if (toCache && !toRefineProgressively) {
+            processCached(original, sink);
+            return;
+        }
+
+        Image img = original; // divided at its own size, without padding
+        QuadTree qt = new QuadTree(img);
+
+        if (toCompress && toWriteTree) {
+            LinearQuadTree tree = new LinearQuadTree(img);
+            for (int i = 0; i < Main.COMPRESSION_LVLS.length; i++) {
+                tree.divide(Main.COMPRESSION_LVLS[i]);
+                ByteArrayOutputStream out = new ByteArrayOutputStream();
+                QuadTreeCodec.encode(tree, out);
+                sink.write(out.toByteArray(), levelFilename(i, QuadTreeCodec.FILETYPE));
+            }
+        } else if (toCompress && toRefineProgressively) {
+            // the next snapshot repaints this one, so the sink gets a copy
+            qt.divideProgressively(Main.COMPRESSION_LVLS, (level, compressed) ->
+                sink.write(compressed.copy(), outline(qt), levelFilename(level, Main.FILETYPE), toWriteBinary));
+        } else if (toCompress) {
+            for (int i = 0; i < Main.COMPRESSION_LVLS.length; i++) {
+                qt.divide(Main.COMPRESSION_LVLS[i]);
+                Image compressed = qt.compress();
+                sink.write(compressed, outline(qt), levelFilename(i, Main.FILETYPE), toWriteBinary);
+            }
+        }
+
+        if (toEdgeDetect) {
+            divide(qt);
+            qt.edgeDetection();
+            sink.write(toFilter ? img.copy() : img, outline(qt), outputFilename + Main.FILETYPE, toWriteBinary); // -x goes on to change the image
+        }
+
+        if (toFilter) {
+            divide(qt);
+            img.randomNeighbor(seed);
+            sink.write(img, outline(qt), outputFilename + Main.FILETYPE, toWriteBinary);
+        }
+    }
+
+    /** Compresses the image once, refining its quadtree until it reaches the -q PSNR
+    * or its .qtc file would go over the -l size, and reports what was reached
+    * @param img The image to compress
+    * @param sink The receiver of the compressed image, or of the .qtc file with -z
+    */
+    private void compressToTarget(Image img, Sink sink) throws IOException {
+        LinearQuadTree tree = new LinearQuadTree(img);
+        LinearQuadTree.Quality quality = tree.divideToTarget(minPsnr, maxBytes);
+        System.out.println("reached " + quality);
+
+        if (toWriteTree) {
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            QuadTreeCodec.encode(tree, out);
+            System.out.println("the quadtree file takes " + out.size() + " bytes");
+            sink.write(out.toByteArray(), outputFilename + QuadTreeCodec.FILETYPE);
+            return;
+        }
+        Image compressed = tree.compress();
+        sink.write(compressed, outline(tree), outputFilename + Main.FILETYPE, toWriteBinary);
+    }
+
+    /** Compresses the image as the next frame of the -u sequence, at the full detail of
+    * its quadtree, updating only the Nodes where it differs from the frame before
+    * @param img The frame to compress
+    * @param sink The receiver of the compressed frame, or of its .qtc file with -z
+    */
+    private void compressFrame(Image img, Sink sink) throws IOException {
+        Image compressed = frames.next(img);
+        System.out.println("frame " + frames.getFrames() + ": " + frames.getChangedTiles() + " of " + frames.getTiles()
+            + " tiles changed, " + frames.getUpdatedNodes() + " Nodes updated, " + frames.getRepaintedPixels() + " pixels repainted");
+
+        if (toWriteTree) {
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            QuadTreeCodec.encode(frames.getTree(), out);
+            sink.write(out.toByteArray(), outputFilename + QuadTreeCodec.FILETYPE);
+            return;
+        }
+        sink.write(compressed, outline(frames.getTree()), outputFilename + Main.FILETYPE, toWriteBinary);
+    }
+
+    /** Does the work of process() with the fully divided tree of each image from the
+    * TreeCache, so an image seen before is never divided again
+    * @param img The image to process; it is changed
+    * @param sink The receiver of the outputs
+    */
+    private void processCached(Image img, Sink sink) throws IOException {
+        if (toCompress) {
+            LinearQuadTree full = TreeCache.get().tree(img);
+            for (int i = 0; i < Main.COMPRESSION_LVLS.length; i++) {
+                LinearQuadTree tree = full.prune(Main.COMPRESSION_LVLS[i]);
+                if (toWriteTree) {
+                    ByteArrayOutputStream out = new ByteArrayOutputStream();
+                    QuadTreeCodec.encode(tree, out);
+                    sink.write(out.toByteArray(), levelFilename(i, QuadTreeCodec.FILETYPE));
+                    continue;
+                }
+                Image compressed = tree.compress();
+                sink.write(compressed, outline(tree), levelFilename(i, Main.FILETYPE), toWriteBinary);
+            }
+        }
+
+        if (toEdgeDetect) {
+            LinearQuadTree tree = TreeCache.get().tree(img).prune(Double.POSITIVE_INFINITY);
+            tree.setImg(img);
+            tree.edgeDetection();
+            sink.write(toFilter ? img.copy() : img, outline(tree), outputFilename + Main.FILETYPE, toWriteBinary); // -x goes on to change the image
+        }
+
+        if (toFilter) {
+            LinearQuadTree tree = toOutline ? TreeCache.get().tree(img).prune(Double.POSITIVE_INFINITY) : null;
+            img.randomNeighbor(seed);
+            sink.write(img, outline(tree), outputFilename + Main.FILETYPE, toWriteBinary);
+        }
+    }
+
+    /** Returns the outline of a QuadTree for -t
+    * @param qt The divided QuadTree
+    * @return Outline the outline to draw over the output; or null without -t
+    */
+    private Outline outline(QuadTree qt) {
+        return toOutline ? qt.getOutline(qt.getRoot()) : null;
+    }
+
+    /** Returns the outline of a tree for -t
+    * @param tree The divided tree
+    * @return Outline the outline to draw over the output; or null without -t
+    */
+    private Outline outline(LinearQuadTree tree) {
+        return toOutline ? tree.getOutline() : null;
+    }
+
+    /** Fully divides the QuadTree, in parallel if more than one thread was requested
+    * @param qt The QuadTree to divide
+    */
+    private void divide(QuadTree qt) {
+        if (numThreads > 1) {
+            qt.divideInParallel();
+        } else {
+            qt.divide();
+        }
+    }
+
+    /** Renders the -v region of the input's quadtree. A .qtc input is decoded
+    * into its tree; any other input is fully divided first.
+    * @param original The image from read(); or null for a .qtc input
+    * @param sink The receiver of the rendered region
+    */
+    private void renderViewport(Image original, Sink sink) throws IOException {
+        LinearQuadTree tree;
+        if (original == null) {
+            tree = QuadTreeCodec.readTree(filename);
+        } else {
+            if (filters != null) {
+                filters.apply(original);
+            }
+            tree = new LinearQuadTree(original);
+            tree.divide();
+        }
+        Image view = tree.render(viewport[0], viewport[1], viewport[2], viewport[3], viewport[4], LinearQuadTree.MAX_DEPTH);
+        sink.write(view, outputFilename + Main.FILETYPE, toWriteBinary);
+    }
+
+    /** Runs the Job in strips and tiles within the -m memory budget, streaming
+    * straight from the input file to the output files
+    */
+    private void processTiled() throws IOException {
+        Pipeline pipeline = filters == null ? new Pipeline() : filters;
+        if (toEdgeDetect || toWriteTree) {
+            System.out.println("edge detection and quadtree files need the whole image; ignored with " + Main.MEMORY_BUDGET_FLAG);
+        }
+        if (toCompress) {
+            String[] outputs = new String[Main.COMPRESSION_LVLS.length];
+            for (int j = 0; j < Main.COMPRESSION_LVLS.length; j++) {
+                outputs[j] = levelFilename(j, Main.FILETYPE);
+            }
+            new TiledProcessor(memoryBudget, pipeline).compress(filename, outputs, Main.COMPRESSION_LVLS, toOutline, toWriteBinary);
+        }
+        if (toFilter) { // a second pass over the file, as the levels are compressed from the image before -x
+            Pipeline random = new Pipeline(pipeline).randomNeighbor(seed);
+            new TiledProcessor(memoryBudget, random).filter(filename, outputFilename + Main.FILETYPE, toWriteBinary);
+        } else if (!toCompress) {
+            new TiledProcessor(memoryBudget, pipeline).filter(filename, outputFilename + Main.FILETYPE, toWriteBinary);
+        }
+    }
+}
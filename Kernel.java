@@ -0,0 +1,175 @@
+/* Names: Emma Lee and Rachel Nguyen
+* File: Kernel.java
+* Desc:
+*
+* A class to define a square convolution kernel.
+*
+* A Kernel has an odd side length and row-major weights.
+* On creation it checks whether it is separable (the outer
+* product of a column and a row vector) so that Convolution
+* can apply it as two 1D passes.
+*
+*/
+
+import java.util.Arrays;
+
+public class Kernel {
+    public static final float SEPARABLE_TOLERANCE = 1e-5f; // relative error allowed when factoring a kernel
+    public static final int MAX_GAUSSIAN_SIZE = TileScheduler.TILE_SIZE + 1; // the widest blur; its halo is at most half a tile
+
+    private final int size; // the side length of the kernel
+    private final float[] weights; // the weights, row by row
+    private final float[] column; // the column factor if separable; null otherwise
+    private final float[] row; // the row factor if separable; null otherwise
+
+    /** Creates a Kernel with the given side length and weights
+    * @param size The side length, which must be odd
+    * @param weights The size*size weights, row by row
+    */
+    public Kernel(int size, float[] weights) {
+        if (size < 1 || size % 2 == 0 || weights.length != size * size) {
+            throw new IllegalArgumentException("kernel must be an odd NxN matrix: size " + size + ", " + weights.length + " weights");
+        }
+        this.size = size;
+        this.weights = weights.clone();
+
+        // factor K = column * row around the largest weight, then check every weight
+        int pivot = 0;
+        for (int i = 1; i < weights.length; i++) {
+            if (Math.abs(weights[i]) > Math.abs(weights[pivot])) {
+                pivot = i;
+            }
+        }
+        float p = weights[pivot];
+        float[] c = new float[size];
+        float[] r = new float[size];
+        for (int i = 0; i < size; i++) {
+            c[i] = weights[i * size + pivot % size];
+            r[i] = p == 0 ? 0 : weights[(pivot / size) * size + i] / p;
+        }
+        boolean separable = size > 1 && p != 0;
+        for (int i = 0; i < size && separable; i++) {
+            for (int j = 0; j < size && separable; j++) {
+                separable = Math.abs(c[i] * r[j] - weights[i * size + j]) <= SEPARABLE_TOLERANCE * Math.abs(p);
+            }
+        }
+        column = separable ? c : null;
+        row = separable ? r : null;
+    }
+
+    /** Creates a Kernel from integer weights
+    * @param size The side length, which must be odd
+    * @param weights The size*size weights, row by row
+    */
+    public Kernel(int size, int[] weights) {
+        this(size, toFloats(weights));
+    }
+
+    private static float[] toFloats(int[] weights) {
+        float[] result = new float[weights.length];
+        for (int i = 0; i < weights.length; i++) {
+            result[i] = weights[i];
+        }
+        return result;
+    }
+
+    // accessors
+    public int getSize() {
+        return size;
+    }
+
+    public int getRadius() {
+        return size / 2;
+    }
+
+    public float getWeight(int row, int col) {
+        return weights[row * size + col];
+    }
+
+    public boolean isSeparable() {
+        return column != null;
+    }
+
+    /** Returns the column factor of a separable kernel
+    * @return float[] the vertical weights, or null if the kernel is not separable
+    */
+    public float[] getColumn() {
+        return column == null ? null : column.clone();
+    }
+
+    /** Returns the row factor of a separable kernel
+    * @return float[] the horizontal weights, or null if the kernel is not separable
+    */
+    public float[] getRow() {
+        return row == null ? null : row.clone();
+    }
+
+    float[] weights() {
+        return weights;
+    }
+
+    float[] column() {
+        return column;
+    }
+
+    float[] row() {
+        return row;
+    }
+
+    /** Checks a Gaussian blur size before anything is allocated for it
+    * @param size The side length, which must be odd and at most MAX_GAUSSIAN_SIZE
+    */
+    public static void checkGaussianSize(int size) {
+        if (size < 1 || size % 2 == 0 || size > MAX_GAUSSIAN_SIZE) {
+            throw new IllegalArgumentException("blur size must be odd, from 1 to " + MAX_GAUSSIAN_SIZE + ": " + size);
+        }
+    }
+
+    /** Creates a normalized Gaussian blur kernel
+    * @param size The side length, which must be odd
+    * @param sigma The standard deviation in pixels
+    * @return Kernel the Gaussian kernel
+    */
+    public static Kernel gaussian(int size, double sigma) {
+        checkGaussianSize(size);
+        double[] g = new double[size];
+        double total = 0;
+        for (int i = 0; i < size; i++) {
+            int d = i - size / 2;
+            g[i] = Math.exp(-(d * d) / (2 * sigma * sigma));
+            total += g[i];
+        }
+        float[] weights = new float[size * size];
+        for (int i = 0; i < size; i++) {
+            for (int j = 0; j < size; j++) {
+                weights[i * size + j] = (float) (g[i] * g[j] / (total * total));
+            }
+        }
+        return new Kernel(size, weights);
+    }
+
+    /** Creates a normalized box blur kernel
+    * @param size The side length, which must be odd
+    * @return Kernel the box kernel
+    */
+    public static Kernel box(int size) {
+        float[] weights = new float[size * size];
+        Arrays.fill(weights, 1f / (size * size));
+        return new Kernel(size, weights);
+    }
+
+    /** @return Kernel a 3x3 sharpening kernel */
+    public static Kernel sharpen() {
+        return new Kernel(3, new int[] {0, -1, 0, -1, 5, -1, 0, -1, 0});
+    }
+
+    /** @return Kernel the 3x3 Sobel kernel for horizontal gradients */
+    public static Kernel sobelX() {
+        return new Kernel(3, new int[] {-1, 0, 1, -2, 0, 2, -1, 0, 1});
+    }
+
+    /** @return Kernel the 3x3 Sobel kernel for vertical gradients */
+    public static Kernel sobelY() {
+        return new Kernel(3, new int[] {-1, -2, -1, 0, 0, 0, 1, 2, 1});
+    }
+}
@@ -0,0 +1,905 @@
+/* Names: Emma Lee and Rachel Nguyen
+* File: LinearQuadTree.java
+* Desc:
+*
+* A pointer-free QuadTree stored in primitive arrays.
+*
+* Every Node is an index into parallel arrays holding its
+* coordinates, size, depth, cached mean color and the index
+* of its first child. The four children of a Node are always
+* stored next to each other (NW, NE, SW, SE) and always after
+* their parent, so traversals are plain loops over the arrays.
+* When a strip one pixel wide or tall is split, two of those
+* four are empty Nodes with no width or height; they are never
+* split, painted or counted as leaves.
+* divide() builds depth first, which lays sibling blocks out in
+* Z (Morton) order; divide(compressionLvl) builds breadth first
+* like QuadTree.
+* merge() turns a divided Node back into a leaf without moving
+* anything: the Nodes below it are left in the arrays as empty
+* Nodes, and compact() drops them once there are enough.
+*
+* Splits and thresholds match QuadTree, so both build the same tree.
+*
+*/
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+public class LinearQuadTree {
+    public static final int NO_CHILD = -1; // the first child index of a leaf
+    public static final int ROOT = 0; // the index of the root
+    public static final int INITIAL_CAPACITY = 1024; // the number of Nodes the arrays start with
+    public static final int MAX_DEPTH = 2 * Integer.SIZE; // every split at least halves a side, so no tree is deeper
+    public static final int BYTES_PER_NODE = 6 * Integer.BYTES + 1; // the bytes each Node takes in the arrays
+    private static final int STACK_SIZE = 3 * MAX_DEPTH + 1; // a depth-first walk keeps at most 3 pending siblings per level
+
+    private Image img; // the main image to be subdivided into Nodes; null for a decoded tree
+    private final int width; // the width of the area the tree covers
+    private final int height; // the height of the area the tree covers
+    private int size; // the number of Nodes
+    private int numLeaves; // the number of leaves
+    private int maxDepth; // the depth of the deepest leaf
+
+    // one entry per Node
+    private int[] xs; // the x coordinate of the upper leftmost pixel
+    private int[] ys; // the y coordinate of the upper leftmost pixel
+    private int[] widths; // the width
+    private int[] heights; // the height
+    private int[] firstChild; // the index of the NW child, or NO_CHILD for a leaf
+    private int[] means; // the packed mean color
+    private byte[] depths; // the number of splits between the root and the Node
+    private final int[] bounds = new int[4 * QuadTree.NUM_CHILDREN]; // scratch space for child bounds
+
+    //---------------- nested Quality class ----------------
+    /** What divideToTarget() reached */
+    public static class Quality {
+        private final double psnr; // the PSNR of the compressed image, in decibels
+        private final int leaves; // the number of leaves
+        private final double compressionLevel; // the number of leaves over the number of pixels
+        private final long bodyBytes; // the size of the .qtc body before it is deflated
+
+        public Quality(double psnr, int leaves, double compressionLevel, long bodyBytes) {
+            this.psnr = psnr;
+            this.leaves = leaves;
+            this.compressionLevel = compressionLevel;
+            this.bodyBytes = bodyBytes;
+        }
+
+        // getters
+        public double getPsnr() {
+            return psnr;
+        }
+
+        public int getLeaves() {
+            return leaves;
+        }
+
+        public double getCompressionLevel() {
+            return compressionLevel;
+        }
+
+        public long getBodyBytes() {
+            return bodyBytes;
+        }
+
+        /** Returns the most bytes the tree's .qtc file can take
+        * @return long the size of the file, at most
+        */
+        public long getMaxFileBytes() {
+            return QuadTreeCodec.maxFileBytes(bodyBytes);
+        }
+
+        @Override
+        public String toString() {
+            return String.format("PSNR %.2f dB with %d leaves (compression level %.4f), .qtc file at most %d bytes",
+                psnr, leaves, compressionLevel, getMaxFileBytes());
+        }
+    } //----------- end of nested Quality class -----------
+
+    //---------------- nested SplitQueue class ----------------
+    /** A binary max-heap of leaves keyed by how much squared error splitting them removes;
+    * of two equal keys the earlier Node comes first, so the order never depends on the heap
+    */
+    private static class SplitQueue {
+        private int[] nodes = new int[INITIAL_CAPACITY]; // the heap of Nodes
+        private long[] gains = new long[INITIAL_CAPACITY]; // the key of each entry of the heap
+        private int size; // the number of entries
+
+        public boolean isEmpty() {
+            return size == 0;
+        }
+
+        public int peek() {
+            return nodes[0];
+        }
+
+        public long peekGain() {
+            return gains[0];
+        }
+
+        /** Adds a Node
+        * @param node The Node
+        * @param gain How much squared error splitting it removes
+        */
+        public void add(int node, long gain) {
+            if (size == nodes.length) {
+                nodes = Arrays.copyOf(nodes, size * 2);
+                gains = Arrays.copyOf(gains, size * 2);
+            }
+            nodes[size] = node;
+            gains[size] = gain;
+            int i = size++;
+            while (i > 0 && before(i, (i - 1) / 2)) {
+                swap(i, (i - 1) / 2);
+                i = (i - 1) / 2;
+            }
+        }
+
+        /** Removes the first Node */
+        public void remove() {
+            swap(0, --size);
+            int i = 0;
+            while (true) {
+                int first = i;
+                for (int child = 2 * i + 1; child <= 2 * i + 2 && child < size; child++) {
+                    if (before(child, first)) {
+                        first = child;
+                    }
+                }
+                if (first == i) {
+                    return;
+                }
+                swap(i, first);
+                i = first;
+            }
+        }
+
+        /** Returns whether entry i comes before entry j */
+        private boolean before(int i, int j) {
+            return gains[i] > gains[j] || (gains[i] == gains[j] && nodes[i] < nodes[j]);
+        }
+
+        private void swap(int i, int j) {
+            int node = nodes[i];
+            nodes[i] = nodes[j];
+            nodes[j] = node;
+            long gain = gains[i];
+            gains[i] = gains[j];
+            gains[j] = gain;
+        }
+    } //----------- end of nested SplitQueue class -----------
+
+    /** Creates a LinearQuadTree with the given image
+    * @param img The image to be represented
+    */
+    public LinearQuadTree(Image img) {
+        this(img, img.getWidth(), img.getHeight());
+    }
+    
+    /** Creates an undivided LinearQuadTree with no image behind it, to be
+    * filled in with split() and setMeanRGB(), for example by a decoder
+    * @param width The width of the area the tree covers
+    * @param height The height of the area the tree covers
+    */
+    public LinearQuadTree(int width, int height) {
+        this(null, width, height);
+    }
+    
+    private LinearQuadTree(Image img, int width, int height) {
+        this.img = img;
+        this.width = width;
+        this.height = height;
+        xs = new int[INITIAL_CAPACITY];
+        ys = new int[INITIAL_CAPACITY];
+        widths = new int[INITIAL_CAPACITY];
+        heights = new int[INITIAL_CAPACITY];
+        firstChild = new int[INITIAL_CAPACITY];
+        means = new int[INITIAL_CAPACITY];
+        depths = new byte[INITIAL_CAPACITY];
+        clear();
+    }
+
+    // getters
+    public int getRoot() {
+        return ROOT;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    public int getNumLeaves() {
+        return numLeaves;
+    }
+
+    public int getMaxDepth() {
+        return maxDepth;
+    }
+
+    /** Returns how many Nodes have been split
+    * @return int the number of Nodes with children
+    */
+    public int getNumSplits() {
+        int splits = 0;
+        for (int node = 0; node < size; node++) {
+            if (firstChild[node] != NO_CHILD) {
+                splits++;
+            }
+        }
+        return splits;
+    }
+
+    /** Returns how many leaves sit at each depth
+    * @return int[] the leaf depth histogram, indexed by depth
+    */
+    public int[] getLeafDepthHistogram() {
+        int[] histogram = new int[maxDepth + 1];
+        for (int node = 0; node < size; node++) {
+            if (firstChild[node] == NO_CHILD && !isEmpty(node)) {
+                histogram[depths[node]]++;
+            }
+        }
+        return histogram;
+    }
+
+    public Image getImg() {
+        return img;
+    }
+
+    public int getWidth() {
+        return width;
+    }
+
+    public int getHeight() {
+        return height;
+    }
+
+    // setter
+    public void setImg(Image img) {
+        this.img = img;
+    }
+
+    // per-Node accessors
+    public int getX(int node) {
+        return xs[node];
+    }
+
+    public int getY(int node) {
+        return ys[node];
+    }
+
+    public int getWidth(int node) {
+        return widths[node];
+    }
+
+    public int getHeight(int node) {
+        return heights[node];
+    }
+
+    public int getDepth(int node) {
+        return depths[node];
+    }
+
+    /** Returns the index of the NW child; NE, SW and SE follow it
+    * @param node The given Node
+    * @return int the index of the first child, or NO_CHILD for a leaf
+    */
+    public int getFirstChild(int node) {
+        return firstChild[node];
+    }
+
+    public boolean isLeaf(int node) {
+        return firstChild[node] == NO_CHILD;
+    }
+
+    /** Returns whether a Node covers no pixels, as the empty children of a strip do
+    * @param node The given Node
+    * @return boolean True if the Node has no width or no height
+    */
+    public boolean isEmpty(int node) {
+        return widths[node] == 0 || heights[node] == 0;
+    }
+
+    /** Returns the mean color the Node had when it was created
+    * @param node The given Node
+    * @return int the packed mean color
+    */
+    public int getMeanRGB(int node) {
+        return means[node];
+    }
+
+    /** Sets the mean color of a Node
+    * @param node The given Node
+    * @param color the packed mean color
+    */
+    public void setMeanRGB(int node, int color) {
+        means[node] = color;
+    }
+
+    /** Sets every divided Node's mean color to the area-weighted mean of its
+    * children's, bottom up. Used after a decoder has set only the leaves.
+    */
+    public void computeInternalMeans() {
+        // children always come after their parent, so walking backwards visits them first
+        for (int node = size - 1; node >= 0; node--) {
+            int first = firstChild[node];
+            if (first == NO_CHILD) {
+                continue;
+            }
+            long r = 0;
+            long g = 0;
+            long b = 0;
+            for (int c = first; c < first + QuadTree.NUM_CHILDREN; c++) {
+                long area = (long) widths[c] * heights[c];
+                r += Image.red(means[c]) * area;
+                g += Image.green(means[c]) * area;
+                b += Image.blue(means[c]) * area;
+            }
+            long area = (long) widths[node] * heights[node];
+            means[node] = Image.pack((int) (r / area), (int) (g / area), (int) (b / area));
+        }
+    }
+
+    /** Returns the current compression level, which is the number
+    * of leaves over the total amount of pixels in the image
+    * @return double The current compression level
+    */
+    public double getCompressionLevel() {
+        return ((double) numLeaves) / ((long) height * width);
+    }
+
+    /** Discards every Node below the root, leaving a single leaf */
+    public void clear() {
+        size = 0;
+        numLeaves = 1;
+        maxDepth = 0;
+        add(0, 0, width, height, 0);
+    }
+
+    /** Appends a Node and returns its index */
+    private int add(int x, int y, int w, int h, int depth) {
+        if (size == xs.length) {
+            int capacity = size * 2;
+            xs = Arrays.copyOf(xs, capacity);
+            ys = Arrays.copyOf(ys, capacity);
+            widths = Arrays.copyOf(widths, capacity);
+            heights = Arrays.copyOf(heights, capacity);
+            firstChild = Arrays.copyOf(firstChild, capacity);
+            means = Arrays.copyOf(means, capacity);
+            depths = Arrays.copyOf(depths, capacity);
+        }
+        xs[size] = x;
+        ys[size] = y;
+        widths[size] = w;
+        heights[size] = h;
+        depths[size] = (byte) depth;
+        firstChild[size] = NO_CHILD;
+        means[size] = img == null || w == 0 || h == 0 ? Image.BLACK : img.getIntegralImage().meanRGB(x, y, w, h);
+        return size++;
+    }
+
+    /** Returns whether a Node has enough detail to be split
+    * @param node The given Node
+    * @return boolean True if the Node is larger than a pixel and its error is above QuadTree.THRESHOLD
+    */
+    private boolean isDetailed(int node) {
+        if ((long) widths[node] * heights[node] <= 1) { // down to a single pixel, or empty; a leaf
+            return false;
+        }
+        return img.getIntegralImage().meanSquaredError(xs[node], ys[node], widths[node], heights[node]) > QuadTree.THRESHOLD;
+    }
+
+    /** Appends the 4 children of a leaf, the same way QuadTree splits
+    * @param node The leaf to be split
+    * @return int the index of the first child
+    */
+    public int split(int node) {
+        QuadTree.childBounds(xs[node], ys[node], widths[node], heights[node], bounds);
+        int d = depths[node] + 1;
+
+        int first = size;
+        for (int c = 0; c < QuadTree.NUM_CHILDREN; c++) {
+            add(bounds[4 * c], bounds[4 * c + 1], bounds[4 * c + 2], bounds[4 * c + 3], d);
+        }
+        firstChild[node] = first;
+
+        for (int c = 0; c < QuadTree.NUM_CHILDREN; c++) {
+            if (!QuadTree.isEmpty(bounds, c)) {
+                numLeaves++;
+            }
+        }
+        numLeaves--; // the Node itself stops being a leaf
+        maxDepth = Math.max(maxDepth, d);
+        return first;
+    }
+
+    /** Turns a divided Node back into a leaf. Its descendants stay in the arrays
+    * as empty Nodes, which nothing paints, counts or walks to, until compact().
+    * getMaxDepth() may overstate the depth until then.
+    * @param node The divided Node
+    * @return int the number of Nodes dropped
+    */
+    public int merge(int node) {
+        int dropped = 0;
+        int[] stack = new int[STACK_SIZE];
+        int top = 0;
+        stack[top++] = node;
+        while (top > 0) {
+            int n = stack[--top];
+            int first = firstChild[n];
+            if (first == NO_CHILD) {
+                if (!isEmpty(n)) {
+                    numLeaves--;
+                }
+            } else {
+                for (int c = 0; c < QuadTree.NUM_CHILDREN; c++) {
+                    stack[top++] = first + c;
+                }
+            }
+            if (n != node) {
+                widths[n] = 0;
+                heights[n] = 0;
+                firstChild[n] = NO_CHILD;
+                dropped++;
+            }
+        }
+        firstChild[node] = NO_CHILD;
+        numLeaves++; // the Node itself is a leaf again
+        return dropped;
+    }
+
+    /** Moves the Nodes still in the tree to the front of the arrays in breadth-first
+    * order, dropping those merge() left behind
+    * @return int[] the new index of every old Node, or NO_CHILD for a dropped one
+    */
+    public int[] compact() {
+        int[] moved = new int[size];
+        Arrays.fill(moved, NO_CHILD);
+        int[] order = new int[size]; // the old index of every new Node
+        int end = 0;
+        order[end++] = ROOT;
+        moved[ROOT] = ROOT;
+        maxDepth = 0;
+        // appending each block of children as its parent is reached keeps the order breadth first
+        for (int next = 0; next < end; next++) {
+            int node = order[next];
+            maxDepth = Math.max(maxDepth, depths[node]);
+            int first = firstChild[node];
+            if (first != NO_CHILD) {
+                for (int c = first; c < first + QuadTree.NUM_CHILDREN; c++) {
+                    moved[c] = end;
+                    order[end++] = c;
+                }
+            }
+        }
+
+        int[] oldXs = xs;
+        int[] oldYs = ys;
+        int[] oldWidths = widths;
+        int[] oldHeights = heights;
+        int[] oldFirstChild = firstChild;
+        int[] oldMeans = means;
+        byte[] oldDepths = depths;
+        int capacity = Math.max(INITIAL_CAPACITY, end);
+        xs = new int[capacity];
+        ys = new int[capacity];
+        widths = new int[capacity];
+        heights = new int[capacity];
+        firstChild = new int[capacity];
+        means = new int[capacity];
+        depths = new byte[capacity];
+        for (int node = 0; node < end; node++) {
+            int old = order[node];
+            xs[node] = oldXs[old];
+            ys[node] = oldYs[old];
+            widths[node] = oldWidths[old];
+            heights[node] = oldHeights[old];
+            firstChild[node] = oldFirstChild[old] == NO_CHILD ? NO_CHILD : moved[oldFirstChild[old]];
+            means[node] = oldMeans[old];
+            depths[node] = oldDepths[old];
+        }
+        size = end;
+        return moved;
+    }
+
+    /** Divides the tree until it can no longer divide, depth first */
+    public void divide() {
+        try (Metrics.Timer timer = Metrics.start(Metrics.Stage.DIVIDE)) {
+            clear();
+            int[] stack = new int[STACK_SIZE];
+            int top = 0;
+            stack[top++] = ROOT;
+            while (top > 0) {
+                int node = stack[--top];
+                if (isDetailed(node)) {
+                    int first = split(node);
+                    // push SE first so NW is built first
+                    for (int c = 3; c >= 0; c--) {
+                        stack[top++] = first + c;
+                    }
+                }
+            }
+            record(timer);
+        }
+    }
+
+    /** Divides the tree breadth first until it can no longer divide or when the compression level is reached
+    * @param compressionLvl An indicator of when to stop dividing
+    */
+    public void divide(double compressionLvl) {
+        try (Metrics.Timer timer = Metrics.start(Metrics.Stage.DIVIDE)) {
+            clear();
+            // Nodes are appended in breadth-first order, so the queue is just a cursor into the arrays
+            int next = ROOT;
+            while (next < size && getCompressionLevel() < compressionLvl) {
+                int node = next++;
+                if (isDetailed(node)) {
+                    split(node);
+                }
+            }
+            record(timer);
+        }
+    }
+
+    /** Records the tree just divided with the stage's Timer
+    * @param timer The Timer of the division
+    */
+    private void record(Metrics.Timer timer) {
+        if (!timer.isOn()) {
+            return;
+        }
+        timer.addPixels((long) width * height);
+        timer.addTree(getNumSplits(), numLeaves, getLeafDepthHistogram());
+    }
+
+    /** Divides the tree progressively, always splitting the leaf whose split removes the
+    * most squared error next, until the compressed image reaches a PSNR or the next split
+    * would take the tree's .qtc file over a size. Unlike divide(), a Node is split however
+    * little error it has, so any PSNR can be reached. The squared error of the compressed
+    * image and the size of the .qtc body are updated as each Node splits, so the targets are
+    * checked without compressing or encoding anything.
+    * @param minPsnr The PSNR to reach, in decibels; or Double.POSITIVE_INFINITY for no target
+    * @param maxBytes The largest .qtc file allowed; or Long.MAX_VALUE for no limit
+    * @return Quality what was reached
+    */
+    public Quality divideToTarget(double minPsnr, long maxBytes) {
+        try (Metrics.Timer timer = Metrics.start(Metrics.Stage.DIVIDE)) {
+            clear();
+            IntegralImage stats = img.getIntegralImage();
+            long pixels = (long) width * height;
+            long bodyBytes = QuadTreeCodec.ROOT_BYTES + QuadTreeCodec.LEAF_BYTES;
+            if (QuadTreeCodec.maxFileBytes(bodyBytes) > maxBytes) {
+                throw new IllegalArgumentException("a quadtree file takes at least " + QuadTreeCodec.maxFileBytes(bodyBytes) + " bytes");
+            }
+            // the compressed image reaches minPsnr once its squared error is at most this
+            double maxError = 3 * pixels * Math.pow(PPM.MAX_VALUE, 2) / Math.pow(10, minPsnr / 10);
+            long error = stats.squaredError(0, 0, width, height);
+
+            SplitQueue queue = new SplitQueue();
+            offer(ROOT, stats, queue);
+            while (!queue.isEmpty() && error > maxError) {
+                int node = queue.peek();
+                QuadTree.childBounds(xs[node], ys[node], widths[node], heights[node], bounds);
+                int children = 0;
+                for (int c = 0; c < QuadTree.NUM_CHILDREN; c++) {
+                    if (!QuadTree.isEmpty(bounds, c)) {
+                        children++;
+                    }
+                }
+                // the leaf's color gives way to a child mask and the children's colors
+                long grown = bodyBytes - QuadTreeCodec.LEAF_BYTES + QuadTreeCodec.DIVIDED_BYTES + children * QuadTreeCodec.LEAF_BYTES;
+                if (QuadTreeCodec.maxFileBytes(grown) > maxBytes) {
+                    break;
+                }
+                error -= queue.peekGain();
+                bodyBytes = grown;
+                queue.remove();
+
+                int first = split(node);
+                for (int c = first; c < first + QuadTree.NUM_CHILDREN; c++) {
+                    if (!isEmpty(c)) {
+                        offer(c, stats, queue);
+                    }
+                }
+            }
+            record(timer);
+            return new Quality(psnr(error, pixels), numLeaves, getCompressionLevel(), bodyBytes);
+        }
+    }
+
+    /** Queues a leaf to be split if it has any error
+    * @param node The leaf
+    * @param stats The summed-area tables of the image
+    * @param queue The leaves waiting to be split
+    */
+    private void offer(int node, IntegralImage stats, SplitQueue queue) {
+        long gain = stats.squaredError(xs[node], ys[node], widths[node], heights[node]);
+        if (gain == 0) { // a single pixel, or a flat block; splitting gains nothing
+            return;
+        }
+        QuadTree.childBounds(xs[node], ys[node], widths[node], heights[node], bounds);
+        for (int c = 0; c < QuadTree.NUM_CHILDREN; c++) {
+            if (!QuadTree.isEmpty(bounds, c)) {
+                gain -= stats.squaredError(bounds[4 * c], bounds[4 * c + 1], bounds[4 * c + 2], bounds[4 * c + 3]);
+            }
+        }
+        queue.add(node, gain);
+    }
+
+    /** Returns the peak signal-to-noise ratio of a compressed image
+    * @param squaredError The squared error summed over every pixel and channel
+    * @param pixels The number of pixels
+    * @return double the PSNR in decibels; infinite for no error
+    */
+    public static double psnr(long squaredError, long pixels) {
+        if (squaredError == 0) {
+            return Double.POSITIVE_INFINITY;
+        }
+        return 10 * Math.log10(3 * pixels * Math.pow(PPM.MAX_VALUE, 2) / squaredError);
+    }
+
+    /** Returns the tree divide(compressionLvl) would build, cut from this tree
+    * without looking at the image. This tree must be fully divided in breadth-first
+    * order, by divide(Double.POSITIVE_INFINITY): a Node of it then has children
+    * exactly when it is detailed enough to split, and the tree divide(compressionLvl)
+    * builds is the first Nodes of its arrays, so the cut is a copy of them.
+    * @param compressionLvl An indicator of when to stop dividing; Double.POSITIVE_INFINITY copies the whole tree
+    * @return LinearQuadTree a new tree over the same image
+    */
+    public LinearQuadTree prune(double compressionLvl) {
+        // replay the leaf count of divide(compressionLvl) to find where it stops
+        long pixels = (long) height * width;
+        int leaves = 1;
+        int end = ROOT + 1; // the number of Nodes divide(compressionLvl) has built so far
+        int next = ROOT;
+        while (next < end && ((double) leaves) / pixels < compressionLvl) {
+            int first = firstChild[next++];
+            if (first == NO_CHILD) {
+                continue;
+            }
+            if (first != end) {
+                throw new IllegalStateException("the tree is not in breadth-first order");
+            }
+            end += QuadTree.NUM_CHILDREN;
+            for (int c = first; c < end; c++) {
+                if (!isEmpty(c)) {
+                    leaves++;
+                }
+            }
+            leaves--; // the Node itself stops being a leaf
+        }
+
+        LinearQuadTree cut = new LinearQuadTree(img, width, height);
+        cut.size = end;
+        cut.numLeaves = leaves;
+        cut.maxDepth = depths[end - 1]; // breadth first, so the last Node is the deepest
+        cut.xs = Arrays.copyOf(xs, end);
+        cut.ys = Arrays.copyOf(ys, end);
+        cut.widths = Arrays.copyOf(widths, end);
+        cut.heights = Arrays.copyOf(heights, end);
+        cut.means = Arrays.copyOf(means, end);
+        cut.depths = Arrays.copyOf(depths, end);
+        cut.firstChild = Arrays.copyOf(firstChild, end);
+        for (int node = 0; node < end; node++) {
+            if (cut.firstChild[node] >= end) { // divided later than the cut stops
+                cut.firstChild[node] = NO_CHILD;
+            }
+        }
+        return cut;
+    }
+
+    /** Returns how much memory the tree's arrays take
+    * @return long the number of bytes
+    */
+    public long getMemoryBytes() {
+        return (long) xs.length * BYTES_PER_NODE;
+    }
+
+    /** Returns the number of leaves under a given Node
+    * @param node The given Node
+    * @return int The number of leaves
+    */
+    public int getNumLeaves(int node) {
+        int count = 0;
+        int[] stack = new int[STACK_SIZE];
+        int top = 0;
+        stack[top++] = node;
+        while (top > 0) {
+            int n = stack[--top];
+            if (firstChild[n] == NO_CHILD) {
+                if (!isEmpty(n)) {
+                    count++;
+                }
+            } else {
+                for (int c = 0; c < 4; c++) {
+                    stack[top++] = firstChild[n] + c;
+                }
+            }
+        }
+        return count;
+    }
+
+    /** Returns the leaf containing a pixel
+    * @param x The x coordinate of the pixel
+    * @param y The y coordinate of the pixel
+    * @return int the index of the leaf
+    */
+    public int findLeaf(int x, int y) {
+        int node = ROOT;
+        while (firstChild[node] != NO_CHILD) {
+            int first = firstChild[node];
+            for (int c = 0; c < 4; c++) {
+                int child = first + c;
+                if (x >= xs[child] && x < xs[child] + widths[child] && y >= ys[child] && y < ys[child] + heights[child]) {
+                    node = child;
+                    break;
+                }
+            }
+        }
+        return node;
+    }
+
+    /** Compresses the image by filling every leaf with its mean color
+    * @return Image The compressed image
+    */
+    public Image compress() {
+        Image compressed = new Image(width, height);
+        int[] pixels = compressed.getPixels();
+        int w = width;
+        try (Metrics.Timer timer = Metrics.start(Metrics.Stage.COMPRESS)) {
+            timer.addPixels((long) width * height);
+            for (int node = 0; node < size; node++) {
+                if (firstChild[node] == NO_CHILD) {
+                    for (int j = ys[node]; j < ys[node] + heights[node]; j++) {
+                        Arrays.fill(pixels, j * w + xs[node], j * w + xs[node] + widths[node], means[node]);
+                    }
+                }
+            }
+        }
+        return compressed;
+    }
+
+    /** Renders part of the tree at a reduced level of detail. Output pixel (i, j)
+    * shows the Node containing source pixel (x + j*scale, y + i*scale),
+    * and descent stops at leaves, at depthLimit, and at Nodes no bigger than scale
+    * pixels, so the work grows with the output size rather than the source size.
+    * @param x The x coordinate of the upper left source pixel of the region
+    * @param y The y coordinate of the upper left source pixel of the region
+    * @param w The width of the region in source pixels
+    * @param h The height of the region in source pixels
+    * @param scale How many source pixels one output pixel spans in each direction; 1 for full size
+    * @param depthLimit The deepest Nodes to descend to
+    * @return Image an image of ceil(w/scale) by ceil(h/scale) pixels
+    */
+    public Image render(int x, int y, int w, int h, int scale, int depthLimit) {
+        if (w <= 0 || h <= 0 || scale < 1 || x < 0 || y < 0 || x + w > width || y + h > height) {
+            throw new IllegalArgumentException("region " + x + "," + y + " " + w + "x" + h + " scale " + scale
+                + " does not fit in " + width + "x" + height);
+        }
+        int outWidth = (w + scale - 1) / scale;
+        int outHeight = (h + scale - 1) / scale;
+        int[] out = new int[outWidth * outHeight];
+
+        int[] stack = new int[STACK_SIZE];
+        int top = 0;
+        stack[top++] = ROOT;
+        while (top > 0) {
+            int node = stack[--top];
+            int nx = xs[node];
+            int ny = ys[node];
+            if (nx >= x + w || ny >= y + h || nx + widths[node] <= x || ny + heights[node] <= y) {
+                continue; // outside the region
+            }
+            if (firstChild[node] != NO_CHILD && depths[node] < depthLimit
+                    && (widths[node] > scale || heights[node] > scale)) {
+                for (int c = 0; c < QuadTree.NUM_CHILDREN; c++) {
+                    stack[top++] = firstChild[node] + c;
+                }
+                continue;
+            }
+            // the output pixels whose sample point falls inside the Node
+            int col0 = Math.max(0, Math.floorDiv(nx - x + scale - 1, scale));
+            int col1 = Math.min(outWidth, Math.floorDiv(nx + widths[node] - x + scale - 1, scale));
+            int row0 = Math.max(0, Math.floorDiv(ny - y + scale - 1, scale));
+            int row1 = Math.min(outHeight, Math.floorDiv(ny + heights[node] - y + scale - 1, scale));
+            for (int i = row0; i < row1; i++) {
+                if (col0 < col1) {
+                    Arrays.fill(out, i * outWidth + col0, i * outWidth + col1, means[node]);
+                }
+            }
+        }
+        return new Image(out, outWidth, outHeight);
+    }
+
+    /** Renders a region at full detail
+    * @param x The x coordinate of the upper left pixel of the region
+    * @param y The y coordinate of the upper left pixel of the region
+    * @param w The width of the region
+    * @param h The height of the region
+    * @return Image a w by h image
+    */
+    public Image render(int x, int y, int w, int h) {
+        return render(x, y, w, h, 1, MAX_DEPTH);
+    }
+
+    /** Renders the whole tree scaled down to fit in a square
+    * @param maxSide The largest width or height of the thumbnail
+    * @return Image the thumbnail
+    */
+    public Image thumbnail(int maxSide) {
+        int scale = Math.max(1, (Math.max(width, height) + maxSide - 1) / maxSide);
+        return render(0, 0, width, height, scale, MAX_DEPTH);
+    }
+
+    /** Outlines every Node of the tree in red on the image */
+    public void outline() {
+        getOutline().paint(img);
+    }
+
+    /** Returns the outline of every Node of the tree, to be laid over an image of the
+    * tree's size. Only the leaves are drawn, since their borders cover their parents'.
+    * @return Outline the borders of the leaves
+    */
+    public Outline getOutline() {
+        try (Metrics.Timer timer = Metrics.start(Metrics.Stage.OUTLINE)) {
+            timer.addPixels((long) width * height);
+            Outline outline = new Outline(width, height);
+            for (int node = 0; node < size; node++) {
+                if (firstChild[node] == NO_CHILD) {
+                    outline.addBorder(xs[node], ys[node], widths[node], heights[node]);
+                }
+            }
+            return outline;
+        }
+    }
+
+    /** Applies the edge detection filter on the image, but
+    * only on Nodes of sufficiently small size to save time
+    * @param mode How to fill in pixels outside the image
+    */
+    public void edgeDetection(Convolution.BorderMode mode) {
+        QuadTree.detectEdges(img, getDetailedRegions(), mode);
+    }
+
+    /** Returns the detailed regions of the tree: the largest divided Nodes whose height is
+    * at most QuadTree.SUFFICIENTLY_SMALL_NODE_SIZE, which hold every edge edge detection finds
+    * @return List<TileScheduler.Tile> the regions, each with the halo the edge kernel reads
+    */
+    public List<TileScheduler.Tile> getDetailedRegions() {
+        List<TileScheduler.Tile> regions = new ArrayList<TileScheduler.Tile>();
+        double threshold = QuadTree.SUFFICIENTLY_SMALL_NODE_SIZE;
+        if (firstChild[ROOT] != NO_CHILD && heights[ROOT] <= threshold) {
+            regions.add(region(ROOT));
+            return regions;
+        }
+        // a region's parent is divided and too big, so the regions are the small divided children of big divided Nodes
+        for (int node = 0; node < size; node++) {
+            if (firstChild[node] == NO_CHILD || heights[node] <= threshold) {
+                continue;
+            }
+            for (int c = firstChild[node]; c < firstChild[node] + QuadTree.NUM_CHILDREN; c++) {
+                if (firstChild[c] != NO_CHILD && heights[c] <= threshold) {
+                    regions.add(region(c));
+                }
+            }
+        }
+        return regions;
+    }
+
+    /** Returns a Node as a region for edge detection */
+    private TileScheduler.Tile region(int node) {
+        return new TileScheduler.Tile(xs[node], ys[node], widths[node], heights[node], QuadTree.EDGE_RADIUS, width, height);
+    }
+
+    /** Applies the edge detection filter, leaving the pixels on the image's border black */
+    public void edgeDetection() {
+        edgeDetection(Convolution.BorderMode.CLAMP);
+        QuadTree.clearBorder(img);
+    }
+}
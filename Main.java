@@ -7,13 +7,15 @@
 * This program takes a .ppm image file as input
 * and performs image compression, edge detection
 * or filter. User can decide the name of the ouput
-* file this program writes to.
+* file this program writes to. The flags are read
+* into a Job; with -d the Job is run on a whole batch
+* of images, and with -d and -u on a sequence of frames.
+* With -r the time, memory and quadtree statistics of each
+* stage are written to a JSON report once the run ends.
 *
 */
 
-import java.io.*;
-import java.util.*;
-import java.awt.Color;
+import java.io.IOException;
 
 public class Main {
     public static final String INPUT_FLAG = "-i"; // the flag for the input image filename (.ppm)
@@ -23,113 +25,104 @@ public class Main {
     public static final String COMPRESSION_FLAG = "-c"; // the flag that indicates image compression
     public static final String EDGE_DETECTION_FLAG = "-e"; // the flag that indicates the output image has edge detection
     public static final String RANDOM_NEIGHBOR_FLAG = "-x"; // the flag that indicates the output image has random neighbor filter
+    public static final String SEED_FLAG = "-g"; // the flag for the seed of the random neighbor filter, so a run can be repeated exactly
+    public static final String BINARY_OUTPUT_FLAG = "-b"; // the flag that indicates output images are written as binary (P6) PPM
+    public static final String PROGRESSIVE_FLAG = "-p"; // the flag that indicates compression refines the worst node first in a single pass
+    public static final String THREADS_FLAG = "-j"; // the flag for the number of threads used to build the quadtree
+    public static final String FILTER_CHAIN_FLAG = "-f"; // the flag for a comma-separated chain of filters, e.g. grayscale,tint:ff8000,negative
+    public static final String QUALITY_FLAG = "-q"; // the flag for a PSNR in decibels that compression refines the quadtree until it reaches
+    public static final String SIZE_LIMIT_FLAG = "-l"; // the flag for the most bytes the compressed quadtree file (.qtc) may take
+    public static final String TREE_OUTPUT_FLAG = "-z"; // the flag that indicates compressed output is written as quadtree files (.qtc)
+    public static final String VIEWPORT_FLAG = "-v"; // the flag for a region to render from the quadtree, as x,y,w,h[,scale]
+    public static final String MEMORY_BUDGET_FLAG = "-m"; // the flag for a memory budget in megabytes, which processes the image in strips and tiles
+    public static final String BATCH_FLAG = "-d"; // the flag for a directory or manifest file of images to process in one batch
+    public static final String CACHE_FLAG = "-k"; // the flag for a directory to keep fully divided quadtrees in, so later runs on the same image skip dividing
+    public static final String FRAMES_FLAG = "-u"; // the flag that indicates a batch is a sequence of frames, each compressed by updating the quadtree of the one before
+    public static final String SERVER_FLAG = "-s"; // the flag for a port to serve compression, edge detection and filters over HTTP on
+    public static final String REPORT_FLAG = "-r"; // the flag for a JSON file to write the time, memory and quadtree statistics of each stage to
+    public static final String DEFAULT_OUTPUT_DIRECTORY = "out"; // the directory a batch writes to if no -o is given
+    public static final String VIEWPORT_DELIMITER = ","; // separates the numbers of a viewport
     public static final double[] COMPRESSION_LVLS = {0.002, 0.004, 0.01, 0.033, 0.077, 0.2, 0.5, 0.75}; // an array of compression level
     public static final String FILETYPE = ".ppm"; // the file type to write to
 
-    public static String filename = ""; // the filename user enters after flag -i
-    public static String outputFilename = "out"; // the output filename user enters after flag -o; or "out" by default if no given (explained in README)
-    public static boolean toOutline; // check whether user enters -t
-    public static boolean toCompress; // check whether user enters -c
-    public static boolean toEdgeDetect; // check whether user enters -e
-    public static boolean toFilter; // check whether user enters -x
-
-    /** Reads in flag information
-        * @param args The flag information to be read
-        * @return String[] An array of the output filenames
-        */
-    public static String[] parseFlags(String[] args) {
-        String[] outputFilenames = new String[COMPRESSION_LVLS.length]; // an array of 8 output filenames based on 8 compression levels
-        
+    /** Runs the program on one image, with -d on every image of a batch, or with -s as a server
+    * @param args The flags
+    */
+    public static void main(String[] args) {
+        String batchSource = null; // the directory or manifest user enters after flag -d; or null for one image
+        String outputDirectory = DEFAULT_OUTPUT_DIRECTORY; // where a batch writes, user enters after flag -o
+        int port = -1; // the port user enters after flag -s; or -1 if not given
+        boolean isSequence = false; // check whether user enters -u
+        String reportFilename = null; // the report user enters after flag -r; or null for no report
+        int numThreads = 0; // the worker threads user enters after flag -j; or 0 for one per processor
         for (int i = 0; i < args.length; i++) {
-            String str = args[i];
-            if (str.compareTo(OUTLINE_FLAG) == 0) {
-                toOutline = true;
+            if (args[i].compareTo(SERVER_FLAG) == 0) {
+                port = Integer.parseInt(args[i + 1]);
             }
-            if (str.compareTo(COMPRESSION_FLAG) == 0) {
-                toCompress = true;
+            if (args[i].compareTo(BATCH_FLAG) == 0) {
+                batchSource = args[i + 1];
             }
-            if (str.compareTo(EDGE_DETECTION_FLAG) == 0) {
-                toEdgeDetect = true;
+            if (args[i].compareTo(OUTPUT_FILENAME_FLAG) == 0) {
+                outputDirectory = args[i + 1];
             }
-            if (str.compareTo(RANDOM_NEIGHBOR_FLAG) == 0) {
-                toFilter = true;
+            if (args[i].compareTo(FRAMES_FLAG) == 0) {
+                isSequence = true;
             }
-            if (str.compareTo(INPUT_FLAG) == 0) {
-                filename = args[i + 1];
+            if (args[i].compareTo(REPORT_FLAG) == 0) {
+                reportFilename = args[i + 1];
             }
-            if (str.compareTo(OUTPUT_FILENAME_FLAG) == 0) {
-                outputFilename = args[i + 1];
-                for (int j = 0; j < COMPRESSION_LVLS.length; j++) {
-                    outputFilenames[j] = outputFilename + OUTPUT_FILENAME_SEPARATOR + (j + 1) + FILETYPE;
-                }
+            if (args[i].compareTo(THREADS_FLAG) == 0) {
+                numThreads = Integer.parseInt(args[i + 1]);
             }
         }
-        return outputFilenames;
-    }
-
-    public static void main(String[] args) {
-        String[] outputFilenames = parseFlags(args);
-        
-        Image img = new Image(filename);
-        img = img.resize();
-        QuadTree qt = new QuadTree(img);
 
-        if (toCompress) {
-            int outputFileTracker = 0;
-            for (double compressionLvl : COMPRESSION_LVLS) {
-                qt.divide(compressionLvl);
-                Image compressed = qt.compress();
-                qt.setImg(compressed);
-            
-                if (toOutline) {
-                    qt.outline(qt.getRoot());
-                }
-    
-                try {
-                    compressed.writeImg(outputFilenames[outputFileTracker]);
-                } catch (IOException e) {
-                    System.out.println(e);
-                    System.exit(0);
+        try {
+            Job job = Job.parse(args); // check the flags once, before any image is read
+            if (numThreads > 0) { // sized once here, as every Job of a batch shares the pool
+                WorkerPool.setThreads(numThreads);
+            }
+            int failures = 0; // the number of batch images that failed
+            if (reportFilename != null) {
+                Metrics.setEnabled(true);
+            }
+            if (port >= 0) {
+                new Server(port, Server.DEFAULT_QUEUE_LIMIT).start();
+                if (reportFilename != null) { // the server runs until it is killed
+                    Runtime.getRuntime().addShutdownHook(new Thread(writeReport(reportFilename)));
                 }
-
-                qt.setImg(img);
-                outputFileTracker++;
+            } else if (batchSource != null && isSequence) {
+                failures = new Batch(args, outputDirectory).runFrames(Batch.inputs(batchSource));
+            } else if (batchSource != null) {
+                failures = new Batch(args, outputDirectory).run(Batch.inputs(batchSource));
+            } else {
+                job.run();
             }
-        }
-        
-        if (toEdgeDetect) {
-            qt.divide();
-            qt.edgeDetection();
-
-            if (toOutline) {
-                qt.outline(qt.getRoot());
+            if (reportFilename != null && port < 0) {
+                Metrics.writeReport(reportFilename);
             }
-            
-            try {
-                outputFilename = outputFilename + FILETYPE;
-                img.writeImg(outputFilename);
-            } catch (IOException e) {
-                System.out.println(e);
-                System.exit(0);
+            if (failures > 0) {
+                System.exit(1);
             }
+        } catch (IOException | IllegalArgumentException e) {
+            System.out.println(e);
+            System.exit(0);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            System.out.println(e);
         }
+    }
 
-        if (toFilter) {
-            qt.divide();
-            img.randomNeighbor();
-
-
-            if (toOutline) {
-                qt.outline(qt.getRoot());
-            }
-            
+    /** Returns a task that writes the -r report, for when the program is shut down
+    * @param filename the filename to be written to
+    * @return Runnable the task
+    */
+    private static Runnable writeReport(String filename) {
+        return () -> {
             try {
-                outputFilename = outputFilename + FILETYPE;
-                img.writeImg(outputFilename);
+                Metrics.writeReport(filename);
             } catch (IOException e) {
                 System.out.println(e);
-                System.exit(0);
             }
-        }
+        };
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,345 @@
+/* Names: Emma Lee and Rachel Nguyen
+* File: Metrics.java
+* Desc:
+*
+* Timers and counters for the stages of the program: reading,
+* filtering, building the summed-area tables, dividing,
+* compressing, outlining, edge detection, encoding and writing.
+*
+* Each stage is wrapped in a Timer, which records how long the
+* stage took, the pixels and bytes it went through, an estimate
+* of the memory allocated while it ran, and for the stages that
+* build a quadtree, the splits, leaves and depth of every leaf.
+* A stage that runs inside the same stage, such as a blur inside
+* a filter chain, is counted once; a stage inside another stage
+* is counted in both, so dividing includes the tables it builds.
+*
+* The totals are written as a JSON report with -r, and each stage
+* is also a JFR event (imageprocessing.Stage), recorded whenever
+* the program runs with a flight recording, e.g.
+* java -XX:StartFlightRecording=filename=run.jfr Main ....
+* When neither is on, starting a Timer returns a shared Timer
+* that does nothing, so the stages cost a check each.
+*
+*/
+
+import com.sun.management.ThreadMXBean;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.Writer;
+import java.lang.management.ManagementFactory;
+import java.util.Locale;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.EventType;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+public class Metrics {
+    public static final double NANOS_PER_MILLI = 1e6; // for reporting times in milliseconds
+
+    private static final EventType STAGE_EVENT = EventType.getEventType(StageEvent.class); // whether a recording wants stages
+    private static final ThreadMXBean THREADS = threads(); // counts allocated bytes per thread; or null if the JVM cannot
+    private static final ThreadLocal<boolean[]> RUNNING =
+        ThreadLocal.withInitial(() -> new boolean[Stage.values().length]); // the stages running on each thread
+
+    private static volatile boolean enabled; // whether the totals are kept, as they are with -r
+    private static volatile long enabledAt; // System.nanoTime() when the totals were enabled
+    private static volatile long allocatedAtStart; // the bytes allocated when the totals were enabled
+
+    // the totals of each stage, indexed by Stage.ordinal()
+    private static final LongAdder[] calls = adders(); // how many times the stage ran
+    private static final LongAdder[] nanos = adders(); // how long it took
+    private static final LongAdder[] pixels = adders(); // the pixels it went through
+    private static final LongAdder[] bytes = adders(); // the bytes it read or wrote
+    private static final LongAdder[] allocated = adders(); // the memory allocated while it ran, estimated
+
+    // the totals of every quadtree divided
+    private static final LongAdder splits = new LongAdder(); // the Nodes split
+    private static final LongAdder leaves = new LongAdder(); // the leaves
+    private static final AtomicLongArray leafDepths = new AtomicLongArray(LinearQuadTree.MAX_DEPTH + 1); // the leaves at each depth
+    private static final LongAdder cacheHits = new LongAdder(); // trees found in the TreeCache
+    private static final LongAdder cacheMisses = new LongAdder(); // trees the TreeCache had to build
+
+    /** The parts of the program that are timed */
+    public enum Stage {
+        READ, // decoding an input image or quadtree file
+        FILTER, // the -f chain, -x and the other filters
+        STATISTICS, // building the summed-area tables
+        DIVIDE, // building a quadtree
+        COMPRESS, // painting the leaves' mean colors
+        OUTLINE, // outlining the quadtree
+        EDGES, // edge detection
+        ENCODE, // encoding a quadtree file
+        WRITE // encoding and writing an output file
+    }
+
+    //---------------- nested StageEvent class ----------------
+    /** The JFR event of one stage; its duration is the stage's */
+    @Name("imageprocessing.Stage")
+    @Label("Image Processing Stage")
+    @Category("Image Processing")
+    @Description("One stage of reading, processing or writing an image")
+    private static class StageEvent extends Event {
+        @Label("Stage")
+        private String stage;
+
+        @Label("Pixels")
+        private long pixels;
+
+        @Label("Bytes")
+        @DataAmount
+        private long bytes;
+
+        @Label("Allocated")
+        @Description("Bytes allocated by every thread while the stage ran, estimated")
+        @DataAmount
+        private long allocated;
+
+        @Label("Splits")
+        private long splits;
+
+        @Label("Leaves")
+        private long leaves;
+    } //----------- end of nested StageEvent class -----------
+
+    //---------------- nested Timer class ----------------
+    /** Times one run of a stage, from Metrics.start() until it is closed */
+    public static class Timer implements AutoCloseable {
+        private static final Timer OFF = new Timer(null, null); // the Timer of a stage nobody is recording
+
+        private final Stage stage; // the stage; or null if the Timer does nothing
+        private final StageEvent event; // the JFR event; or null if no recording wants it
+        private final long start; // System.nanoTime() when the stage started
+        private final long allocatedBefore; // the bytes allocated when the stage started
+        private long pixels; // the pixels the stage went through
+        private long bytes; // the bytes the stage read or wrote
+        private long splits; // the Nodes the stage split
+        private long leaves; // the leaves the stage built
+
+        private Timer(Stage stage, StageEvent event) {
+            this.stage = stage;
+            this.event = event;
+            this.start = stage == null ? 0 : System.nanoTime();
+            this.allocatedBefore = stage == null ? 0 : allocatedBytes();
+            if (event != null) {
+                event.begin();
+            }
+        }
+
+        /** Returns whether the stage is being recorded, so work done only to measure it can be skipped
+        * @return boolean True if the Timer records anything
+        */
+        public boolean isOn() {
+            return stage != null;
+        }
+
+        /** Counts pixels the stage went through */
+        public void addPixels(long n) {
+            pixels += n;
+        }
+
+        /** Counts bytes the stage read or wrote */
+        public void addBytes(long n) {
+            bytes += n;
+        }
+
+        /** Records the quadtree the stage built
+        * @param splits The number of Nodes split
+        * @param leaves The number of leaves
+        * @param depths The number of leaves at each depth
+        */
+        public void addTree(long splits, long leaves, int[] depths) {
+            if (stage == null) {
+                return;
+            }
+            this.splits += splits;
+            this.leaves += leaves;
+            if (enabled) {
+                for (int d = 0; d < depths.length && d < leafDepths.length(); d++) {
+                    leafDepths.addAndGet(d, depths[d]);
+                }
+            }
+        }
+
+        /** Ends the stage and records it */
+        @Override
+        public void close() {
+            if (stage == null) {
+                return;
+            }
+            long elapsed = System.nanoTime() - start;
+            long alloc = Math.max(0, allocatedBytes() - allocatedBefore); // threads that ended take their counts with them
+            RUNNING.get()[stage.ordinal()] = false;
+            if (enabled) {
+                int s = stage.ordinal();
+                calls[s].increment();
+                nanos[s].add(elapsed);
+                Metrics.pixels[s].add(pixels);
+                Metrics.bytes[s].add(bytes);
+                allocated[s].add(alloc);
+                Metrics.splits.add(splits);
+                Metrics.leaves.add(leaves);
+            }
+            if (event != null) {
+                event.end();
+                if (event.shouldCommit()) {
+                    event.stage = stage.name().toLowerCase(Locale.ROOT);
+                    event.pixels = pixels;
+                    event.bytes = bytes;
+                    event.allocated = alloc;
+                    event.splits = splits;
+                    event.leaves = leaves;
+                    event.commit();
+                }
+            }
+        }
+    } //----------- end of nested Timer class -----------
+
+    /** Turns the totals and the -r report on or off. Turning them on starts them from zero.
+    * @param on True to keep the totals
+    */
+    public static synchronized void setEnabled(boolean on) {
+        if (on && !enabled) {
+            reset();
+            enabledAt = System.nanoTime();
+            allocatedAtStart = allocatedBytes();
+        }
+        enabled = on;
+    }
+
+    public static boolean isEnabled() {
+        return enabled;
+    }
+
+    /** Starts timing a stage on this thread
+    * @param stage The stage
+    * @return Timer the Timer to close when the stage ends; one that does nothing if nothing is
+    * recording or the same stage is already running on this thread
+    */
+    public static Timer start(Stage stage) {
+        if (!enabled && !STAGE_EVENT.isEnabled()) {
+            return Timer.OFF;
+        }
+        boolean[] running = RUNNING.get();
+        if (running[stage.ordinal()]) {
+            return Timer.OFF; // counted by the run it is part of
+        }
+        running[stage.ordinal()] = true;
+        return new Timer(stage, STAGE_EVENT.isEnabled() ? new StageEvent() : null);
+    }
+
+    /** Counts a lookup of the TreeCache
+    * @param hit True if the tree was found; false if it was built
+    */
+    public static void countCacheLookup(boolean hit) {
+        if (enabled) {
+            (hit ? cacheHits : cacheMisses).increment();
+        }
+    }
+
+    /** Returns the bytes allocated so far by every live thread, or 0 if the JVM does not count them */
+    private static long allocatedBytes() {
+        if (THREADS == null) {
+            return 0;
+        }
+        long total = 0;
+        for (long n : THREADS.getThreadAllocatedBytes(THREADS.getAllThreadIds())) {
+            total += Math.max(0, n); // -1 for a thread that ended meanwhile
+        }
+        return total;
+    }
+
+    /** Returns the JVM's thread bean if it can count allocated bytes */
+    private static ThreadMXBean threads() {
+        java.lang.management.ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+        if (bean instanceof ThreadMXBean && ((ThreadMXBean) bean).isThreadAllocatedMemorySupported()) {
+            ((ThreadMXBean) bean).setThreadAllocatedMemoryEnabled(true);
+            return (ThreadMXBean) bean;
+        }
+        return null;
+    }
+
+    private static LongAdder[] adders() {
+        LongAdder[] adders = new LongAdder[Stage.values().length];
+        for (int i = 0; i < adders.length; i++) {
+            adders[i] = new LongAdder();
+        }
+        return adders;
+    }
+
+    /** Sets every total back to zero */
+    private static void reset() {
+        for (int s = 0; s < calls.length; s++) {
+            calls[s].reset();
+            nanos[s].reset();
+            pixels[s].reset();
+            bytes[s].reset();
+            allocated[s].reset();
+        }
+        splits.reset();
+        leaves.reset();
+        cacheHits.reset();
+        cacheMisses.reset();
+        for (int d = 0; d < leafDepths.length(); d++) {
+            leafDepths.set(d, 0);
+        }
+    }
+
+    /** Returns the totals since they were enabled as a JSON object
+    * @return String the report
+    */
+    public static String toJson() {
+        StringBuilder json = new StringBuilder();
+        json.append("{\n");
+        json.append(String.format(Locale.ROOT, "  \"millis\": %.3f,%n", (System.nanoTime() - enabledAt) / NANOS_PER_MILLI));
+        json.append("  \"allocatedBytes\": ").append(Math.max(0, allocatedBytes() - allocatedAtStart)).append(",\n");
+        json.append("  \"bytesRead\": ").append(bytes[Stage.READ.ordinal()].sum()).append(",\n");
+        json.append("  \"bytesWritten\": ").append(bytes[Stage.WRITE.ordinal()].sum()).append(",\n");
+
+        json.append("  \"stages\": {");
+        String separator = "\n";
+        for (Stage stage : Stage.values()) {
+            int s = stage.ordinal();
+            if (calls[s].sum() == 0) {
+                continue;
+            }
+            json.append(separator).append(String.format(Locale.ROOT,
+                "    \"%s\": {\"calls\": %d, \"millis\": %.3f, \"pixels\": %d, \"bytes\": %d, \"allocatedBytes\": %d}",
+                stage.name().toLowerCase(Locale.ROOT), calls[s].sum(), nanos[s].sum() / NANOS_PER_MILLI,
+                pixels[s].sum(), bytes[s].sum(), allocated[s].sum()));
+            separator = ",\n";
+        }
+        json.append(separator.equals("\n") ? "},\n" : "\n  },\n");
+
+        int deepest = 0;
+        for (int d = 0; d < leafDepths.length(); d++) {
+            if (leafDepths.get(d) > 0) {
+                deepest = d;
+            }
+        }
+        json.append("  \"tree\": {\"splits\": ").append(splits.sum()).append(", \"leaves\": ").append(leaves.sum())
+            .append(", \"leavesAtDepth\": [");
+        for (int d = 0; d <= deepest; d++) {
+            json.append(d == 0 ? "" : ", ").append(leafDepths.get(d));
+        }
+        json.append("]},\n");
+        json.append("  \"cache\": {\"hits\": ").append(cacheHits.sum()).append(", \"misses\": ").append(cacheMisses.sum()).append("}\n");
+        json.append("}\n");
+        return json.toString();
+    }
+
+    /** Writes the JSON report
+    * @param filename the filename to be written to
+    */
+    public static void writeReport(String filename) throws IOException {
+        try (Writer out = new FileWriter(filename)) {
+            out.write(toJson());
+        }
+        System.out.println("metrics written to " + filename);
+    }
+}
@@ -0,0 +1,146 @@
+/* Names: Emma Lee and Rachel Nguyen
+* File: Outline.java
+* Desc:
+*
+* The outline of a quadtree, kept apart from the image it
+* outlines so that it can be laid over it as it is written.
+*
+* Every Node is outlined by the one-pixel border just inside
+* it. The children of a Node cover it exactly, so the border of
+* a divided Node is made of the borders of its children, and
+* only the leaves need drawing: each border pixel is set once,
+* and the work grows with the total perimeter of the leaves
+* rather than with their area times the depth of the tree.
+*
+* The pixels are kept as one bit each, so the same compressed
+* image can be written plain and outlined without copying it.
+*
+*/
+
+public class Outline {
+    public static final int COLOR = Image.RED; // the color the outline is drawn in
+    public static final int WORD_SHIFT = 6; // log2 of the pixels one long holds
+
+    private final int width; // the width of the image outlined
+    private final int height; // the height of the image outlined
+    private final long[] words; // one bit for each pixel, row by row; set if the pixel is outlined
+
+    /** Creates an empty outline
+    * @param width The width of the image to outline
+    * @param height The height of the image to outline
+    */
+    public Outline(int width, int height) {
+        this.width = width;
+        this.height = height;
+        this.words = new long[(int) (((long) width * height + Long.SIZE - 1) >>> WORD_SHIFT)];
+    }
+
+    public int getWidth() {
+        return width;
+    }
+
+    public int getHeight() {
+        return height;
+    }
+
+    /** Returns the number of pixels the outline covers
+    * @return int the number of outlined pixels
+    */
+    public int getNumPixels() {
+        int n = 0;
+        for (long word : words) {
+            n += Long.bitCount(word);
+        }
+        return n;
+    }
+
+    /** Adds the border just inside a rectangle, such as a leaf
+    * @param x The x coordinate of the upper left pixel
+    * @param y The y coordinate of the upper left pixel
+    * @param w The width of the rectangle
+    * @param h The height of the rectangle
+    */
+    public void addBorder(int x, int y, int w, int h) {
+        if (w <= 0 || h <= 0) {
+            return;
+        }
+        int top = y * width + x;
+        int bottom = (y + h - 1) * width + x;
+        set(top, top + w);
+        set(bottom, bottom + w);
+        for (int i = top + width; i < bottom; i += width) {
+            words[i >>> WORD_SHIFT] |= 1L << i;
+            words[(i + w - 1) >>> WORD_SHIFT] |= 1L << (i + w - 1);
+        }
+    }
+
+    /** Sets the bits from index from (inclusive) to to (exclusive) */
+    private void set(int from, int to) {
+        int first = from >>> WORD_SHIFT;
+        int last = (to - 1) >>> WORD_SHIFT;
+        long firstMask = -1L << from; // shifts use only the low 6 bits of the index
+        long lastMask = -1L >>> -to;
+        if (first == last) {
+            words[first] |= firstMask & lastMask;
+            return;
+        }
+        words[first] |= firstMask;
+        for (int k = first + 1; k < last; k++) {
+            words[k] = -1L;
+        }
+        words[last] |= lastMask;
+    }
+
+    /** Returns whether a pixel is on the outline
+    * @param x The x coordinate
+    * @param y The y coordinate
+    * @return boolean True if the pixel is outlined
+    */
+    public boolean contains(int x, int y) {
+        int i = y * width + x;
+        return (words[i >>> WORD_SHIFT] & (1L << i)) != 0;
+    }
+
+    /** Draws the outline onto the pixels of a row
+    * @param row The row of the image
+    * @param dst The array holding the row
+    * @param offset The index in dst of the row's first pixel
+    */
+    public void paintRow(int row, int[] dst, int offset) {
+        paint(row * width, (row + 1) * width, dst, offset - row * width);
+    }
+
+    /** Draws the outline onto an image, in place
+    * @param img The image outlined, of the outline's size
+    */
+    public void paint(Image img) {
+        paint(0, width * height, img.getPixels(), 0);
+        img.invalidateIntegralImage();
+    }
+
+    /** Colors the outlined pixels from index from (inclusive) to to (exclusive),
+    * visiting only the set bits of each word
+    * @param dst The pixels to draw on
+    * @param shift What to add to a pixel's index to get its index in dst
+    */
+    private void paint(int from, int to, int[] dst, int shift) {
+        if (from >= to) {
+            return;
+        }
+        int first = from >>> WORD_SHIFT;
+        int last = (to - 1) >>> WORD_SHIFT;
+        for (int k = first; k <= last; k++) {
+            long bits = words[k];
+            if (k == first) {
+                bits &= -1L << from;
+            }
+            if (k == last) {
+                bits &= -1L >>> -to;
+            }
+            while (bits != 0) {
+                dst[(k << WORD_SHIFT) + Long.numberOfTrailingZeros(bits) + shift] = COLOR;
+                bits &= bits - 1;
+            }
+        }
+    }
+}
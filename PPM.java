@@ -0,0 +1,614 @@
+/* Names: Emma Lee and Rachel Nguyen
+* File: PPM.java
+* Desc:
+*
+* A codec for PPM image files.
+*
+* Reads both ASCII (P3) and binary (P6) PPM files through a
+* memory-mapped buffer, honoring header comments and any maxval,
+* and writes either format through a direct buffer on a FileChannel.
+* StripReader and StripWriter do the same a few rows at a time for
+* images too large to hold in memory, and either format can also be
+* read from or written to a stream as its bytes arrive.
+*
+*/
+
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+
+public class PPM {
+    public static final String ASCII_MAGIC = "P3"; // magic number of an ASCII PPM
+    public static final String BINARY_MAGIC = "P6"; // magic number of a binary PPM
+    public static final int MAX_VALUE = 255; // the maxval this codec writes
+    public static final int BUFFER_SIZE = 1 << 16; // size of the direct write buffer
+    public static final int HEADER_WINDOW = 1 << 20; // the most bytes a header (with comments) may span when streaming
+    private static final int MAX_PIXEL_TEXT = 12; // longest text of one pixel, "255 255 255 "
+
+    //---------------- nested Header class ----------------
+    /** The parsed header of a PPM file */
+    public static class Header {
+        private final boolean binary; // true if P6, false if P3
+        private final int width; // the width of the image
+        private final int height; // the height of the image
+        private final int maxValue; // the maximum channel value
+        private final int rasterOffset; // the byte offset where pixel data begins
+
+        public Header(boolean binary, int width, int height, int maxValue, int rasterOffset) {
+            this.binary = binary;
+            this.width = width;
+            this.height = height;
+            this.maxValue = maxValue;
+            this.rasterOffset = rasterOffset;
+        }
+
+        // accessors
+        public boolean isBinary() {
+            return binary;
+        }
+
+        public int getWidth() {
+            return width;
+        }
+
+        public int getHeight() {
+            return height;
+        }
+
+        public int getMaxValue() {
+            return maxValue;
+        }
+
+        public int getRasterOffset() {
+            return rasterOffset;
+        }
+    } //----------- end of nested Header class -----------
+
+    //---------------- nested Tokenizer class ----------------
+    /** Reads whitespace-separated non-negative integers from a byte buffer, skipping # comments */
+    private static class Tokenizer {
+        private final ByteBuffer buf; // the buffer being read
+        private int pos; // the absolute position of the next unread byte
+        private final int limit; // the end of the readable bytes
+
+        public Tokenizer(ByteBuffer buf, int pos) {
+            this.buf = buf;
+            this.pos = pos;
+            this.limit = buf.limit();
+        }
+
+        public int position() {
+            return pos;
+        }
+
+        /** Skips whitespace and comments up to the next token */
+        private void skipSeparators() {
+            while (pos < limit) {
+                byte c = buf.get(pos);
+                if (c == '#') { // a comment runs to the end of the line
+                    while (pos < limit && buf.get(pos) != '\n' && buf.get(pos) != '\r') {
+                        pos++;
+                    }
+                } else if (c == ' ' || c == '\n' || c == '\r' || c == '\t' || c == '\f' || c == 0x0B) {
+                    pos++;
+                } else {
+                    return;
+                }
+            }
+        }
+
+        /** Returns the next integer token
+        * @return int the parsed value
+        */
+        public int nextInt() throws IOException {
+            skipSeparators();
+            int start = pos;
+            int value = 0;
+            while (pos < limit) {
+                int digit = buf.get(pos) - '0';
+                if (digit < 0 || digit > 9) {
+                    break;
+                }
+                value = value * 10 + digit;
+                pos++;
+            }
+            if (pos == start) {
+                throw new IOException("malformed PPM: expected a number at byte " + start);
+            }
+            return value;
+        }
+    } //----------- end of nested Tokenizer class -----------
+
+    //---------------- nested ChannelTokenizer class ----------------
+    /** Reads bytes and integer tokens from a channel through a small buffer, skipping # comments */
+    private static class ChannelTokenizer {
+        private final ReadableByteChannel in; // the channel being read
+        private final ByteBuffer buf = ByteBuffer.allocateDirect(BUFFER_SIZE); // the read buffer
+
+        public ChannelTokenizer(ReadableByteChannel in) {
+            this.in = in;
+            buf.flip(); // empty until the first refill
+        }
+
+        /** Returns the next byte, or -1 at the end of the channel */
+        public int nextByte() throws IOException {
+            if (!buf.hasRemaining()) {
+                buf.clear();
+                int n = in.read(buf);
+                while (n == 0) { // a non-blocking channel with nothing to read yet
+                    n = in.read(buf);
+                }
+                buf.flip();
+                if (n < 0) {
+                    return -1;
+                }
+            }
+            return buf.get() & 0xFF;
+        }
+
+        /** Returns the next integer token, skipping whitespace and comments.
+        * The byte that ends the token is consumed too.
+        * @return int the parsed value
+        */
+        public int nextInt() throws IOException {
+            int c = nextByte();
+            while (c == '#' || (c >= 0 && (c < '0' || c > '9'))) {
+                if (c == '#') {
+                    while (c >= 0 && c != '\n' && c != '\r') {
+                        c = nextByte();
+                    }
+                } else if (c != ' ' && c != '\n' && c != '\r' && c != '\t' && c != '\f' && c != 0x0B) {
+                    throw new IOException("malformed PPM: unexpected byte " + c);
+                }
+                c = nextByte();
+            }
+            if (c < 0) {
+                throw new EOFException("truncated PPM");
+            }
+            int value = 0;
+            while (c >= '0' && c <= '9') {
+                value = value * 10 + (c - '0');
+                c = nextByte();
+            }
+            return value;
+        }
+
+        /** Reads a header from the start of the channel
+        * @return Header the header; its raster offset is -1, since a stream has no offsets
+        */
+        public Header readHeader() throws IOException {
+            int p = nextByte();
+            int format = nextByte();
+            if (p != 'P' || (format != '3' && format != '6')) {
+                throw new IOException("not a P3 or P6 PPM file");
+            }
+            int width = nextInt();
+            int height = nextInt();
+            int maxValue = nextInt(); // also consumes the one whitespace byte before the raster
+            checkHeader(width, height, maxValue);
+            return new Header(format == '6', width, height, maxValue, -1);
+        }
+    } //----------- end of nested ChannelTokenizer class -----------
+
+    //---------------- nested StripReader class ----------------
+    /** Reads a PPM file a few rows at a time, so that only those rows are in memory.
+    * P6 rows are read through a memory map of just the requested rows; P3 text is
+    * tokenized from a small buffer refilled from the channel.
+    */
+    public static class StripReader implements Closeable {
+        private final FileChannel channel; // the open file
+        private final Header header; // the parsed header
+        private final ChannelTokenizer text; // reads the P3 samples; null for P6
+        private long position; // the file offset of the next unread P6 byte
+        private int rowsRead; // the number of rows read so far
+
+        /** Opens a file and reads its header
+        * @param filename the filename to be read
+        */
+        public StripReader(String filename) throws IOException {
+            channel = FileChannel.open(Paths.get(filename), StandardOpenOption.READ);
+            try {
+                header = readHeader(channel.map(FileChannel.MapMode.READ_ONLY, 0, Math.min(channel.size(), HEADER_WINDOW)));
+            } catch (IOException e) {
+                channel.close();
+                throw e;
+            }
+            position = header.getRasterOffset();
+            if (header.isBinary()) {
+                text = null;
+            } else {
+                channel.position(header.getRasterOffset() - 1);
+                text = new ChannelTokenizer(channel);
+            }
+        }
+
+        public Header getHeader() {
+            return header;
+        }
+
+        /** Reads the next rows of the image
+        * @param dst The array to read into
+        * @param offset The index in dst of the first pixel
+        * @param rows The number of rows to read
+        */
+        public void readRows(int[] dst, int offset, int rows) throws IOException {
+            try (Metrics.Timer timer = Metrics.start(Metrics.Stage.READ)) {
+                timer.addPixels((long) rows * header.getWidth());
+                decodeRows(dst, offset, rows);
+            }
+        }
+
+        /** Decodes the next rows of the raster into dst */
+        private void decodeRows(int[] dst, int offset, int rows) throws IOException {
+            if (rowsRead + rows > header.getHeight()) {
+                throw new IOException("read past the last row: " + (rowsRead + rows) + " > " + header.getHeight());
+            }
+            int count = rows * header.getWidth();
+            int maxValue = header.getMaxValue();
+            if (header.isBinary()) {
+                int bytesPerSample = maxValue < 256 ? 1 : 2;
+                long length = (long) count * 3 * bytesPerSample;
+                if (position + length > channel.size()) {
+                    throw new IOException("truncated P6 raster");
+                }
+                MappedByteBuffer buf = channel.map(FileChannel.MapMode.READ_ONLY, position, length);
+                for (int i = 0, pos = 0; i < count; i++, pos += 3 * bytesPerSample) {
+                    if (bytesPerSample == 1) {
+                        dst[offset + i] = Image.pack(scale(buf.get(pos) & 0xFF, maxValue),
+                            scale(buf.get(pos + 1) & 0xFF, maxValue), scale(buf.get(pos + 2) & 0xFF, maxValue));
+                    } else {
+                        dst[offset + i] = Image.pack(scale(buf.getShort(pos) & 0xFFFF, maxValue),
+                            scale(buf.getShort(pos + 2) & 0xFFFF, maxValue), scale(buf.getShort(pos + 4) & 0xFFFF, maxValue));
+                    }
+                }
+                position += length;
+            } else {
+                for (int i = 0; i < count; i++) {
+                    int r = scale(text.nextInt(), maxValue);
+                    int g = scale(text.nextInt(), maxValue);
+                    int b = scale(text.nextInt(), maxValue);
+                    dst[offset + i] = Image.pack(r, g, b);
+                }
+            }
+            rowsRead += rows;
+        }
+
+        @Override
+        public void close() throws IOException {
+            channel.close();
+        }
+    } //----------- end of nested StripReader class -----------
+
+    //---------------- nested StripWriter class ----------------
+    /** Writes a PPM file a few rows at a time */
+    public static class StripWriter implements Closeable {
+        private final RandomAccessFile file; // the open file
+        private final FileChannel channel; // the file's channel
+        private final ByteBuffer buf = ByteBuffer.allocateDirect(BUFFER_SIZE); // the write buffer
+        private final int width; // the width of the image
+        private final boolean binary; // true if P6, false if P3
+
+        /** Creates the file and writes its header
+        * @param filename the filename to be written to
+        * @param width The width of the image
+        * @param height The height of the image
+        * @param binary True to write P6; false to write P3
+        */
+        public StripWriter(String filename, int width, int height, boolean binary) throws IOException {
+            file = new RandomAccessFile(filename, "rw");
+            file.setLength(0);
+            channel = file.getChannel();
+            this.width = width;
+            this.binary = binary;
+            putHeader(buf, width, height, binary);
+        }
+
+        /** Appends rows to the file
+        * @param pixels The packed pixels, row by row
+        * @param fromRow The first row to write
+        * @param toRow One past the last row to write
+        */
+        public void writeRows(int[] pixels, int fromRow, int toRow) throws IOException {
+            try (Metrics.Timer timer = Metrics.start(Metrics.Stage.WRITE)) {
+                timer.addPixels((long) (toRow - fromRow) * width);
+                if (binary) {
+                    writeBinary(pixels, fromRow * width, toRow * width, channel, buf);
+                } else {
+                    writeAscii(pixels, width, fromRow, toRow, channel, buf);
+                }
+            }
+        }
+
+        @Override
+        public void close() throws IOException {
+            try {
+                flush(channel, buf);
+            } finally {
+                file.close();
+            }
+        }
+    } //----------- end of nested StripWriter class -----------
+
+    /** Parses the header at the start of a PPM buffer
+    * @param buf The buffer holding the file
+    * @return Header The parsed header
+    */
+    public static Header readHeader(ByteBuffer buf) throws IOException {
+        if (buf.limit() < 2 || buf.get(0) != 'P' || (buf.get(1) != '3' && buf.get(1) != '6')) {
+            throw new IOException("not a P3 or P6 PPM file");
+        }
+        boolean binary = buf.get(1) == '6';
+        Tokenizer in = new Tokenizer(buf, 2);
+        int width = in.nextInt();
+        int height = in.nextInt();
+        int maxValue = in.nextInt();
+        checkHeader(width, height, maxValue);
+        // exactly one whitespace byte separates the maxval from a binary raster
+        return new Header(binary, width, height, maxValue, in.position() + 1);
+    }
+
+    /** Checks that the numbers of a header make sense */
+    private static void checkHeader(int width, int height, int maxValue) throws IOException {
+        if (width <= 0 || height <= 0 || maxValue <= 0 || maxValue > 65535) {
+            throw new IOException("malformed PPM header: " + width + "x" + height + " maxval " + maxValue);
+        }
+    }
+
+    /** Reads a P3 or P6 image from a stream, such as a request body, as it arrives
+    * @param in The stream to read from; left open
+    * @param maxPixels The most pixels to accept, checked before the raster is read
+    * @return Image the decoded image
+    */
+    public static Image read(InputStream in, long maxPixels) throws IOException {
+        ChannelTokenizer tokens = new ChannelTokenizer(Channels.newChannel(in));
+        Header header = tokens.readHeader();
+        long count = (long) header.getWidth() * header.getHeight();
+        if (count > maxPixels) {
+            throw new IOException("image too large: " + header.getWidth() + "x" + header.getHeight() + " is over " + maxPixels + " pixels");
+        }
+        int[] pixels = new int[(int) count];
+        int maxValue = header.getMaxValue();
+        for (int i = 0; i < pixels.length; i++) {
+            int r;
+            int g;
+            int b;
+            if (!header.isBinary()) {
+                r = tokens.nextInt();
+                g = tokens.nextInt();
+                b = tokens.nextInt();
+            } else if (maxValue < 256) {
+                r = nextSample(tokens, 1);
+                g = nextSample(tokens, 1);
+                b = nextSample(tokens, 1);
+            } else {
+                r = nextSample(tokens, 2);
+                g = nextSample(tokens, 2);
+                b = nextSample(tokens, 2);
+            }
+            pixels[i] = Image.pack(scale(r, maxValue), scale(g, maxValue), scale(b, maxValue));
+        }
+        return new Image(pixels, header.getWidth(), header.getHeight());
+    }
+
+    /** Reads one big-endian binary sample */
+    private static int nextSample(ChannelTokenizer tokens, int bytes) throws IOException {
+        int value = 0;
+        for (int i = 0; i < bytes; i++) {
+            int b = tokens.nextByte();
+            if (b < 0) {
+                throw new EOFException("truncated P6 raster");
+            }
+            value = (value << 8) | b;
+        }
+        return value;
+    }
+
+    /** Reads a P3 or P6 file into an Image
+    * @param filename the filename to be read
+    * @return Image the decoded image
+    */
+    public static Image read(String filename) throws IOException {
+        try (FileChannel channel = FileChannel.open(Paths.get(filename), StandardOpenOption.READ)) {
+            if (channel.size() > Integer.MAX_VALUE) {
+                throw new IOException(filename + " is too large to map (" + channel.size() + " bytes)");
+            }
+            MappedByteBuffer buf = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            Header header = readHeader(buf);
+            long count = (long) header.getWidth() * header.getHeight();
+            if (count > Integer.MAX_VALUE) {
+                throw new IOException("image too large: " + header.getWidth() + "x" + header.getHeight() + " is over " + Integer.MAX_VALUE + " pixels");
+            }
+            int[] pixels = new int[(int) count];
+            if (header.isBinary()) {
+                readBinary(buf, header, pixels);
+            } else {
+                readAscii(buf, header, pixels);
+            }
+            return new Image(pixels, header.getWidth(), header.getHeight());
+        }
+    }
+
+    /** Decodes P3 text samples into packed pixels */
+    private static void readAscii(ByteBuffer buf, Header header, int[] pixels) throws IOException {
+        Tokenizer in = new Tokenizer(buf, header.getRasterOffset() - 1);
+        int maxValue = header.getMaxValue();
+        for (int i = 0; i < pixels.length; i++) {
+            int r = scale(in.nextInt(), maxValue);
+            int g = scale(in.nextInt(), maxValue);
+            int b = scale(in.nextInt(), maxValue);
+            pixels[i] = Image.pack(r, g, b);
+        }
+    }
+
+    /** Decodes P6 bytes (one or two bytes per sample) into packed pixels */
+    private static void readBinary(ByteBuffer buf, Header header, int[] pixels) throws IOException {
+        int maxValue = header.getMaxValue();
+        int bytesPerSample = maxValue < 256 ? 1 : 2;
+        int pos = header.getRasterOffset();
+        if ((long) pos + (long) pixels.length * 3 * bytesPerSample > buf.limit()) {
+            throw new IOException("truncated P6 raster");
+        }
+        if (maxValue == MAX_VALUE) { // the common case needs no rescaling
+            for (int i = 0; i < pixels.length; i++, pos += 3) {
+                pixels[i] = Image.OPAQUE | ((buf.get(pos) & 0xFF) << 16) | ((buf.get(pos + 1) & 0xFF) << 8) | (buf.get(pos + 2) & 0xFF);
+            }
+        } else if (bytesPerSample == 1) {
+            for (int i = 0; i < pixels.length; i++, pos += 3) {
+                pixels[i] = Image.pack(scale(buf.get(pos) & 0xFF, maxValue),
+                    scale(buf.get(pos + 1) & 0xFF, maxValue), scale(buf.get(pos + 2) & 0xFF, maxValue));
+            }
+        } else { // 16-bit samples are big-endian
+            for (int i = 0; i < pixels.length; i++, pos += 6) {
+                pixels[i] = Image.pack(scale(buf.getShort(pos) & 0xFFFF, maxValue),
+                    scale(buf.getShort(pos + 2) & 0xFFFF, maxValue), scale(buf.getShort(pos + 4) & 0xFFFF, maxValue));
+            }
+        }
+    }
+
+    /** Rescales a sample from [0, maxValue] to [0, 255], rounding to nearest */
+    private static int scale(int sample, int maxValue) {
+        if (maxValue == MAX_VALUE) {
+            return Math.min(sample, MAX_VALUE);
+        }
+        return (int) Math.min(MAX_VALUE, ((long) sample * MAX_VALUE + maxValue / 2) / maxValue);
+    }
+
+    /** Writes an Image to a PPM file
+    * @param img The image to be written
+    * @param filename the filename to be written to
+    * @param binary True to write P6; false to write P3
+    */
+    public static void write(Image img, String filename, boolean binary) throws IOException {
+        write(img, null, filename, binary);
+    }
+
+    /** Writes an Image to a PPM file with an outline laid over it, leaving the image unchanged
+    * @param img The image to be written
+    * @param outline The outline to draw over the image as it is written; or null for none
+    * @param filename the filename to be written to
+    * @param binary True to write P6; false to write P3
+    */
+    public static void write(Image img, Outline outline, String filename, boolean binary) throws IOException {
+        try (RandomAccessFile file = new RandomAccessFile(filename, "rw")) {
+            file.setLength(0);
+            FileChannel channel = file.getChannel();
+            ByteBuffer buf = ByteBuffer.allocateDirect(BUFFER_SIZE);
+            putHeader(buf, img.getWidth(), img.getHeight(), binary);
+            if (outline != null) {
+                writeOutlined(img, outline, binary, channel, buf);
+            } else if (binary) {
+                writeBinary(img.getPixels(), 0, img.getPixels().length, channel, buf);
+            } else {
+                writeAscii(img.getPixels(), img.getWidth(), 0, img.getHeight(), channel, buf);
+            }
+            flush(channel, buf);
+        }
+    }
+
+    /** Writes an image to a stream, such as a response body, as it is encoded
+    * @param img The image to be written
+    * @param out The stream to write to; flushed and left open
+    * @param binary True to write P6; false to write P3
+    */
+    public static void write(Image img, OutputStream out, boolean binary) throws IOException {
+        WritableByteChannel channel = Channels.newChannel(out);
+        ByteBuffer buf = ByteBuffer.allocate(BUFFER_SIZE);
+        putHeader(buf, img.getWidth(), img.getHeight(), binary);
+        if (binary) {
+            writeBinary(img.getPixels(), 0, img.getPixels().length, channel, buf);
+        } else {
+            writeAscii(img.getPixels(), img.getWidth(), 0, img.getHeight(), channel, buf);
+        }
+        flush(channel, buf);
+        out.flush();
+    }
+
+    /** Encodes an image row by row, drawing the outline over a copy of each row */
+    private static void writeOutlined(Image img, Outline outline, boolean binary, WritableByteChannel channel, ByteBuffer buf) throws IOException {
+        if (outline.getWidth() != img.getWidth() || outline.getHeight() != img.getHeight()) {
+            throw new IllegalArgumentException("the outline is " + outline.getWidth() + "x" + outline.getHeight()
+                + " but the image is " + img.getWidth() + "x" + img.getHeight());
+        }
+        int width = img.getWidth();
+        int[] row = new int[width];
+        for (int i = 0; i < img.getHeight(); i++) {
+            System.arraycopy(img.getPixels(), i * width, row, 0, width);
+            outline.paintRow(i, row, 0);
+            if (binary) {
+                writeBinary(row, 0, width, channel, buf);
+            } else {
+                writeAscii(row, width, 0, 1, channel, buf);
+            }
+        }
+    }
+
+    /** Encodes pixels from index from (inclusive) to to (exclusive) as P6 bytes */
+    private static void writeBinary(int[] pixels, int from, int to, WritableByteChannel channel, ByteBuffer buf) throws IOException {
+        for (int i = from; i < to; i++) {
+            if (buf.remaining() < 3) {
+                flush(channel, buf);
+            }
+            int c = pixels[i];
+            buf.put((byte) (c >> 16)).put((byte) (c >> 8)).put((byte) c);
+        }
+    }
+
+    /** Encodes rows fromRow (inclusive) to toRow (exclusive) as P3 text, one image row per line */
+    private static void writeAscii(int[] pixels, int width, int fromRow, int toRow, WritableByteChannel channel, ByteBuffer buf) throws IOException {
+        for (int i = fromRow; i < toRow; i++) {
+            for (int j = 0; j < width; j++) {
+                if (buf.remaining() < MAX_PIXEL_TEXT + 1) {
+                    flush(channel, buf);
+                }
+                int c = pixels[i * width + j];
+                putSample(buf, Image.red(c));
+                putSample(buf, Image.green(c));
+                putSample(buf, Image.blue(c));
+            }
+            if (!buf.hasRemaining()) {
+                flush(channel, buf);
+            }
+            buf.put((byte) '\n');
+        }
+    }
+
+    /** Puts the header of a PPM file */
+    private static void putHeader(ByteBuffer buf, int width, int height, boolean binary) {
+        String header = (binary ? BINARY_MAGIC + "\n" : ASCII_MAGIC + " ") + width + " " + height + " " + MAX_VALUE + "\n";
+        for (int i = 0; i < header.length(); i++) {
+            buf.put((byte) header.charAt(i));
+        }
+    }
+
+    /** Puts the decimal digits of a sample, followed by a space */
+    private static void putSample(ByteBuffer buf, int v) {
+        if (v >= 100) {
+            buf.put((byte) ('0' + v / 100));
+            buf.put((byte) ('0' + v / 10 % 10));
+        } else if (v >= 10) {
+            buf.put((byte) ('0' + v / 10));
+        }
+        buf.put((byte) ('0' + v % 10));
+        buf.put((byte) ' ');
+    }
+
+    /** Drains the buffer into the channel */
+    private static void flush(WritableByteChannel channel, ByteBuffer buf) throws IOException {
+        buf.flip();
+        while (buf.hasRemaining()) {
+            channel.write(buf);
+        }
+        buf.clear();
+    }
+}
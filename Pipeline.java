@@ -0,0 +1,204 @@
+/* Names: Emma Lee and Rachel Nguyen
+* File: Pipeline.java
+* Desc:
+*
+* A chain of filters to be applied to an Image.
+*
+* Consecutive point filters (negative, grayscale, tint) are
+* fused into a single pass over the pixels: each row of a tile
+* goes through every filter of the run in turn while it is in
+* cache, so each filter can use its vector kernel. Neighborhood
+* filters (random neighbor and the convolutions) need the
+* whole result of the filters before them and act as barriers
+* between passes.
+*
+* Each barrier records how far it reads from the pixel it
+* writes. Their sum is the halo a strip of the image needs
+* around it to be filtered exactly as the whole image would be.
+*
+*/
+
+import java.awt.Color;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Consumer;
+import java.util.function.IntUnaryOperator;
+
+public class Pipeline {
+    public static final String STAGE_DELIMITER = ","; // separates filters in a chain spec
+    public static final String ARGUMENT_DELIMITER = ":"; // separates a filter from its argument
+
+    private final List<Consumer<Image>> passes = new ArrayList<Consumer<Image>>(); // the passes, in order
+    private Image.PointFilter pending; // point filters not yet closed into a pass
+    private int numFilters; // the number of filters added
+    private int halo; // the total radius of the barriers
+
+    /** Creates a pipeline with no filters */
+    public Pipeline() {
+    }
+
+    /** Creates a pipeline with the filters of another, which more can be added to
+    * without changing the other
+    * @param other The pipeline to start from
+    */
+    public Pipeline(Pipeline other) {
+        passes.addAll(other.passes);
+        pending = other.pending;
+        numFilters = other.numFilters;
+        halo = other.halo;
+    }
+
+    /** Adds a point filter, fusing it with any point filters right before it
+    * @param filter The function from a packed pixel to its filtered value
+    * @return Pipeline this pipeline
+    */
+    public Pipeline point(IntUnaryOperator filter) {
+        Image.PointFilter next = filter instanceof Image.PointFilter ? (Image.PointFilter) filter : filter::applyAsInt;
+        pending = pending == null ? next : pending.then(next);
+        numFilters++;
+        return this;
+    }
+
+    /** Adds a filter that needs neighboring pixels, ending the current fused pass
+    * @param filter The filter to run on the whole image
+    * @param radius The farthest the filter reads from the pixel it writes
+    * @return Pipeline this pipeline
+    */
+    public Pipeline barrier(Consumer<Image> filter, int radius) {
+        closePass();
+        passes.add(filter);
+        numFilters++;
+        halo += radius;
+        return this;
+    }
+
+    /** Turns the pending point filters into a pass */
+    private void closePass() {
+        if (pending != null) {
+            Image.PointFilter fused = pending;
+            passes.add(img -> img.applyPointFilter(fused));
+            pending = null;
+        }
+    }
+
+    // the filters of Image
+    public Pipeline negative() {
+        return point(Image.NEGATIVE);
+    }
+
+    public Pipeline grayscale() {
+        return point(Image.GRAYSCALE);
+    }
+
+    public Pipeline tint(Color tint) {
+        return point(Image.tintFilter(tint));
+    }
+
+    public Pipeline randomNeighbor() {
+        return randomNeighbor(Image.DEFAULT_SEED);
+    }
+
+    public Pipeline randomNeighbor(long seed) {
+        return barrier(img -> img.randomNeighbor(seed), 1);
+    }
+
+    public Pipeline blur(int size) {
+        Kernel.checkGaussianSize(size);
+        return barrier(img -> img.blur(size), size / 2);
+    }
+
+    public Pipeline sharpen() {
+        return barrier(Image::sharpen, Kernel.sharpen().getRadius());
+    }
+
+    public Pipeline sobel() {
+        return barrier(Image::sobel, Kernel.sobelX().getRadius());
+    }
+
+    /** Returns the number of passes over the pixels the pipeline makes
+    * @return int the number of passes
+    */
+    public int getNumPasses() {
+        return passes.size() + (pending == null ? 0 : 1);
+    }
+
+    public int getNumFilters() {
+        return numFilters;
+    }
+
+    /** Returns how many rows or columns beyond a region the pipeline reads
+    * @return int the sum of the radii of the barriers
+    */
+    public int getHalo() {
+        return halo;
+    }
+
+    /** Applies every filter to the image in place
+    * @param img The image to be filtered
+    */
+    public void apply(Image img) {
+        closePass();
+        try (Metrics.Timer timer = Metrics.start(Metrics.Stage.FILTER)) {
+            timer.addPixels((long) img.getWidth() * img.getHeight());
+            for (Consumer<Image> pass : passes) {
+                pass.accept(img);
+            }
+        }
+    }
+
+    /** Parses a chain of filters such as "grayscale,tint:ff8000,negative,blur:15".
+    * The filters are negative, grayscale, tint:RRGGBB, random[:SEED], blur:SIZE, sharpen and sobel.
+    * @param spec The comma-separated filters
+    * @return Pipeline the parsed pipeline
+    */
+    public static Pipeline parse(String spec) {
+        Pipeline pipeline = new Pipeline();
+        for (String stage : spec.split(STAGE_DELIMITER)) {
+            String[] parts = stage.trim().split(ARGUMENT_DELIMITER, 2);
+            String name = parts[0];
+            String arg = parts.length > 1 ? parts[1] : null;
+            try {
+                switch (name) {
+                    case "negative":
+                        pipeline.negative();
+                        break;
+                    case "grayscale":
+                        pipeline.grayscale();
+                        break;
+                    case "tint":
+                        pipeline.tint(new Color(Integer.parseInt(requireArgument(name, arg), 16)));
+                        break;
+                    case "random":
+                        pipeline.randomNeighbor(arg == null ? Image.DEFAULT_SEED : Long.parseLong(arg));
+                        break;
+                    case "blur":
+                        pipeline.blur(Integer.parseInt(requireArgument(name, arg)));
+                        break;
+                    case "sharpen":
+                        pipeline.sharpen();
+                        break;
+                    case "sobel":
+                        pipeline.sobel();
+                        break;
+                    default:
+                        throw new IllegalArgumentException("unknown filter: " + name);
+                }
+            } catch (NumberFormatException e) {
+                throw new IllegalArgumentException("bad argument for filter " + name + ": " + arg);
+            }
+        }
+        return pipeline;
+    }
+
+    /** Returns the argument of a filter that needs one
+    * @param name The filter
+    * @param arg The argument after the filter's name; or null if none was given
+    * @return String the argument
+    */
+    private static String requireArgument(String name, String arg) {
+        if (arg == null) {
+            throw new IllegalArgumentException("missing argument for filter " + name);
+        }
+        return arg;
+    }
+}
@@ -0,0 +1,131 @@
+/* Names: Emma Lee and Rachel Nguyen
+* File: PixelOps.java
+* Desc:
+*
+* The inner loops over packed pixels: the negative, grayscale
+* and tint filters, and the channel sums of edge detection.
+*
+* The negative, tint and channel sum loops have a scalar version
+* here and a version in VectorPixelOps that works on many pixels
+* per instruction with the incubating Vector API. The vector
+* versions are used when the program is run with
+* --add-modules jdk.incubator.vector, and the scalar ones
+* otherwise. Both give exactly the same results.
+*
+*/
+
+public class PixelOps {
+    public static final String VECTOR_MODULE = "jdk.incubator.vector"; // the module of the Vector API
+    public static final int MIN_VECTOR_BITS = 128; // narrower vectors are not worth it
+
+    private static final boolean VECTOR_AVAILABLE = vectorAvailable(); // whether the vector kernels can run
+    private static volatile boolean vectorized = VECTOR_AVAILABLE; // whether the vector kernels are used
+
+    /** Returns whether the Vector API was added to the program and the processor has vectors to run it on */
+    private static boolean vectorAvailable() {
+        if (!ModuleLayer.boot().findModule(VECTOR_MODULE).isPresent()) {
+            return false;
+        }
+        try {
+            return VectorPixelOps.getVectorBits() >= MIN_VECTOR_BITS;
+        } catch (LinkageError e) {
+            return false;
+        }
+    }
+
+    public static boolean isVectorAvailable() {
+        return VECTOR_AVAILABLE;
+    }
+
+    public static boolean isVectorized() {
+        return vectorized;
+    }
+
+    /** Turns the vector kernels on or off, for example to compare them with the scalar ones
+    * @param on True to use the vector kernels
+    */
+    public static void setVectorized(boolean on) {
+        if (on && !VECTOR_AVAILABLE) {
+            throw new IllegalStateException("the vector kernels need --add-modules " + VECTOR_MODULE);
+        }
+        vectorized = on;
+    }
+
+    // the point filters, one pixel at a time
+
+    /** Flipping the low 24 bits is 255 - r, 255 - g, 255 - b */
+    public static int negative(int color) {
+        return color ^ 0x00FFFFFF;
+    }
+
+    /** Returns the weighted gray of a pixel */
+    public static int gray(int color) {
+        int c = (int) (Image.red(color)*0.3+Image.green(color)*0.59+Image.blue(color)*0.11);
+        return Image.pack(c, c, c);
+    }
+
+    /** Returns a pixel tinted with the color r, g, b */
+    public static int tint(int color, int r, int g, int b) {
+        // r/255*R makes r/255 a double, which makes entire thing a double, then it gets truncated
+        return Image.pack((Image.red(color)*r)/255, (Image.green(color)*g)/255, (Image.blue(color)*b)/255);
+    }
+
+    // the point filters, a run of pixels at a time
+
+    /** Applies the negative filter to pixels[from, to) in place */
+    public static void negative(int[] pixels, int from, int to) {
+        if (vectorized) {
+            VectorPixelOps.negative(pixels, from, to);
+            return;
+        }
+        for (int k = from; k < to; k++) {
+            pixels[k] = negative(pixels[k]);
+        }
+    }
+
+    /** Applies the grayscale filter to pixels[from, to) in place */
+    public static void grayscale(int[] pixels, int from, int to) {
+        // no vector kernel: the weights must be applied in double precision to give the same grays,
+        // and widening every channel to doubles costs more than it saves
+        for (int k = from; k < to; k++) {
+            pixels[k] = gray(pixels[k]);
+        }
+    }
+
+    /** Tints pixels[from, to) in place with the color r, g, b */
+    public static void tint(int[] pixels, int from, int to, int r, int g, int b) {
+        if (vectorized) {
+            VectorPixelOps.tint(pixels, from, to, r, g, b);
+            return;
+        }
+        for (int k = from; k < to; k++) {
+            pixels[k] = tint(pixels[k], r, g, b);
+        }
+    }
+
+    /** Sums the red, green and blue values of every pixel
+    * @param pixels The packed pixels
+    * @param plane The array to write each pixel's sum to
+    */
+    public static void intensity(int[] pixels, float[] plane) {
+        intensity(pixels, 0, plane, 0, pixels.length);
+    }
+
+    /** Sums the red, green and blue values of a run of pixels, such as a row
+    * @param pixels The packed pixels
+    * @param from The index of the first pixel
+    * @param plane The array to write each pixel's sum to
+    * @param offset The index in plane of the first pixel's sum
+    * @param length The number of pixels
+    */
+    public static void intensity(int[] pixels, int from, float[] plane, int offset, int length) {
+        if (vectorized) {
+            VectorPixelOps.intensity(pixels, from, plane, offset, length);
+            return;
+        }
+        for (int i = 0; i < length; i++) {
+            int c = pixels[from + i];
+            plane[offset + i] = Image.red(c) + Image.green(c) + Image.blue(c);
+        }
+    }
+}
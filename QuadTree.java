@@ -5,24 +5,42 @@
 * A class to define a QuadTree.
 * 
 * Takes an image and subdivides it based on an arbitrary detail threshold.
-* Supports convultion filter edge detection and image compression.
+* Images of any size are divided as they are, without padding: odd
+* sides split with the extra pixel going west or north, and a strip one
+* pixel wide or tall splits into just 2 children, the others being null.
+* Supports convultion filter edge detection (on the Convolution engine)
+* and image compression. Edge detection runs only over the detailed
+* regions of the tree, the largest divided Nodes of a sufficiently
+* small size, in parallel; the rest of the image is black.
 * 
 */
 
 import java.awt.Color;
 import java.io.IOException;
 import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.concurrent.RecursiveAction;
 
 public class QuadTree {
+    public static final int NUM_CHILDREN = 4; // the number of children of a divided Node
     public static final double THRESHOLD = 5; // arbitrarily chosen threshold to determine level of detail
     // arbitrarily chosen number of pixels to determine if a node is of a sufficiently small size in order to apply edge detection
     public static final double SUFFICIENTLY_SMALL_NODE_SIZE = 20;
     public static final int[] EDGE_DETECT_KERNEL = {-1, -1, -1, -1, 8, -1, -1, -1, -1};
+    private static final Kernel EDGE_KERNEL = new Kernel(3, EDGE_DETECT_KERNEL); // EDGE_DETECT_KERNEL for the convolution engine
+    public static final int EDGE_RADIUS = EDGE_KERNEL.getRadius(); // how far the edge kernel reads beyond a pixel
     public static final int EDGE_THRESHOLD = 300; // value to determine if a pixel is above a certain contrast as compared to neighbors
+    public static final long PARALLEL_CUTOFF = 64 * 64; // Nodes with at most this many pixels are built sequentially by one task
 
     private Image img; // the main image to be subdivided into QuadTree nodes
     private Node root; // the root of the QuadTree
     private int size; // the size of the QuadTree
+    private int numLeaves; // the number of leaves, kept up to date as Nodes split
+    private int[] leavesAtDepth; // how many leaves sit at each depth
+    private int maxDepth; // the depth of the deepest leaf
     
     //---------------- nested Node class ----------------
     private static class Node {
@@ -30,6 +48,7 @@ public class QuadTree {
         private int y; // the y coordiante of the upper leftmost pixel of the image
         private int height; // the height of the Node
         private int width; // the width of the Node
+        private int depth; // the number of splits between the root and the Node
         private Node nw; // a reference to the Node that contains the northwest portion
         private Node ne; // a reference to the Node that contains the northeast portion
         private Node sw; // a reference to the Node that contains the southwest portion
@@ -42,10 +61,22 @@ public class QuadTree {
         * @param w The width
         */
         public Node(int x, int y, int h, int w) {
+            this(x, y, h, w, 0);
+        }
+        
+        /** Creates a Node with the given x, y, height, width, and depth
+        * @param x The x coordinate
+        * @param y The y coordinate
+        * @param h The height
+        * @param w The width
+        * @param depth The depth below the root
+        */
+        public Node(int x, int y, int h, int w, int depth) {
             this.x = x;
             this.y = y;
             height = h;
             width = w;
+            this.depth = depth;
         }
         
         // public accessor methods
@@ -65,6 +96,10 @@ public class QuadTree {
             return width;
         }
         
+        public int getDepth() {
+            return depth;
+        }
+        
         public Node getNE() {
             return ne;
         }
@@ -119,7 +154,7 @@ public class QuadTree {
     public QuadTree(Image img) {
         this.img = img;
         this.root = new Node(0, 0, img.getHeight(), img.getWidth());
-        this.size = 1;
+        clear();
     }
     
     // getter methods
@@ -131,6 +166,21 @@ public class QuadTree {
         return size;
     }
     
+    public int getNumLeaves() {
+        return numLeaves;
+    }
+    
+    public int getMaxDepth() {
+        return maxDepth;
+    }
+    
+    /** Returns how many leaves sit at each depth
+    * @return int[] a copy of the leaf depth histogram, indexed by depth
+    */
+    public int[] getLeafDepthHistogram() {
+        return Arrays.copyOf(leavesAtDepth, maxDepth + 1);
+    }
+    
     // setter
     public void setImg(Image img) {
         this.img = img;
@@ -148,7 +198,20 @@ public class QuadTree {
     * @return double The current compression level
     */
     public double getCompressionLevel() {
-        return ((double) getNumLeaves(root))/(img.getHeight()*img.getWidth());
+        return ((double) numLeaves)/((long) img.getHeight()*img.getWidth());
+    }
+    
+    /** Discards every Node below the root, leaving a single leaf */
+    public void clear() {
+        root.setNW(null);
+        root.setNE(null);
+        root.setSW(null);
+        root.setSE(null);
+        size = 1;
+        numLeaves = 1;
+        leavesAtDepth = new int[Integer.SIZE + 1];
+        leavesAtDepth[0] = 1;
+        maxDepth = 0;
     }
     
     /** Returns the mean color of the pixels in a given Node
@@ -156,97 +219,65 @@ public class QuadTree {
     * @return Color The mean color
     */
     public Color meanColor(Node node) {
-        // the array to be converted into a Color to be returned
-        int[] rgb = new int[3];
-        
-        double totalRed = 0; // accumulator variable for the total red value of all pixels
-        double totalGreen = 0; // accumulator variable for the total green value of all pixels
-        double totalBlue = 0; // accumulator variable for the total blue value of all pixels
-        
-        double count = node.getHeight()*node.getWidth(); // total number of pixels in the Node
-        
-        // iterate through each pixel in the Node
-        for (int i = node.getX(); i < node.getX() + node.getWidth(); i++) {
-            for (int j = node.getY(); j < node.getY() + node.getHeight(); j++) {
-                Color color = img.getImg()[j][i];
-                
-                // get rgb values and add to accumulator variables
-                totalRed += color.getRed();
-                totalGreen += color.getGreen();
-                totalBlue += color.getBlue();
-            }
-        }
-        
-        // find the mean rgb values
-        rgb[0] = (int)(totalRed/count);
-        rgb[1] = (int)(totalGreen/count);
-        rgb[2] = (int)(totalBlue/count);
-        
-        // create and return the mean color
-        return new Color(rgb[0], rgb[1], rgb[2]);
+        return new Color(meanRGB(node));
     }
     
-    /** Calculates the mean squared error of the pixels in a given Node as compared to its mean color
+    /** Returns the mean color of the pixels in a given Node as a packed ARGB int.
+    * Looked up in constant time from the image's summed-area tables.
+    * @param node The given Node
+    * @return int The packed mean color
+    */
+    public int meanRGB(Node node) {
+        return img.getIntegralImage().meanRGB(node.getX(), node.getY(), node.getWidth(), node.getHeight());
+    }
+    
+    /** Calculates the mean squared error of the pixels in a given Node as compared to its mean color.
+    * Looked up in constant time from the image's summed-area tables.
     * @param node The given node
     * @return double The mean squared error
     */
     public double meanSquaredError(Node node) {
-        Color meanColor = meanColor(node);
-        
-        // get the mean rgb values
-        int meanRed = meanColor.getRed();
-        int meanGreen = meanColor.getGreen();
-        int meanBlue = meanColor.getBlue();
-        
-        int[] errors = new int[node.getWidth() * node.getHeight()]; // stores the mean squaree error of each pixel
-        int count = 0;
-        
-        for (int i = node.getX(); i < node.getX() + node.getWidth(); i++) { // iterate through each pixel
-            for (int j = node.getY(); j < node.getY() + node.getHeight(); j++) {
-                Color color = img.getImg()[j][i];
-                
-                // get rgb values
-                int r = color.getRed();
-                int g = color.getGreen();
-                int b = color.getBlue();
-                
-                // calculate the squared error of each pixel
-                int error = (int)(Math.pow(r - meanRed,2) + Math.pow(g - meanGreen,2) + Math.pow(b - meanBlue,2));
-                errors[count] = error; // add it to the array
-                count++;
-            }
-        }
-        
-        // calculate the total mean squared error 
-        double sumError = 0;
-        for (int i = 0; i < errors.length; i++) {
-            sumError += errors[i];
-        }
-        
-        double meanSquaredError = sumError/count;
-        return meanSquaredError;
+        return img.getIntegralImage().meanSquaredError(node.getX(), node.getY(), node.getWidth(), node.getHeight());
     }
     
     /** Divides the QuadTree into Nodes until it can no longer divide or when the compression level is reached
     * @param compressionLvl An indicator of when to stop dividing
     */
     public void divide(double compressionLvl) {
-        ArrayDeque<Node> queue = new ArrayDeque<Node>();
-        queue.add(root);
-        
-        // stop as soon as you get over the compression level
-        while (!queue.isEmpty() && getCompressionLevel() < compressionLvl) {
-            subdivide(queue.pop(), queue);
+        try (Metrics.Timer timer = Metrics.start(Metrics.Stage.DIVIDE)) {
+            clear();
+            ArrayDeque<Node> queue = new ArrayDeque<Node>();
+            queue.add(root);
+            
+            // stop as soon as you get over the compression level
+            while (!queue.isEmpty() && getCompressionLevel() < compressionLvl) {
+                subdivide(queue.pop(), queue);
+            }
+            record(timer);
         }
     }
     
     /** Divides the QuadTree into Nodes until it can no longer divide */
     public void divide() {
-        ArrayDeque<Node> queue = new ArrayDeque<Node>();
-        queue.add(root);
-        
-        while (!queue.isEmpty()) {
-            subdivide(queue.pop(), queue);
+        try (Metrics.Timer timer = Metrics.start(Metrics.Stage.DIVIDE)) {
+            clear();
+            ArrayDeque<Node> queue = new ArrayDeque<Node>();
+            queue.add(root);
+            
+            while (!queue.isEmpty()) {
+                subdivide(queue.pop(), queue);
+            }
+            record(timer);
+        }
+    }
+    
+    /** Records the tree just divided with the stage's Timer
+    * @param timer The Timer of the division
+    */
+    private void record(Metrics.Timer timer) {
+        if (timer.isOn()) {
+            timer.addPixels((long) img.getWidth() * img.getHeight());
+            timer.addTree(size - numLeaves, numLeaves, getLeafDepthHistogram());
         }
     }
     
@@ -259,27 +290,266 @@ public class QuadTree {
             return; 
         }
         
-        int x = node.getX();
-        int y = node.getY();
-        int h = node.getHeight();
-        int w = node.getWidth();
+        if (isDetailed(node)) {
+            split(node);
+            
+            for (Node child : new Node[] {node.getNW(), node.getNE(), node.getSW(), node.getSE()}) {
+                if (child != null) {
+                    queue.add(child);
+                }
+            }
+        }
+    }
+    
+    /** Returns whether a Node has enough detail to be split
+    * @param node The given Node
+    * @return boolean True if the Node is larger than a pixel and its error is above the threshold
+    */
+    private boolean isDetailed(Node node) {
+        if (node.getHeight() == 1 && node.getWidth() == 1) { // down to a single pixel; a leaf
+            return false;
+        }
+        return meanSquaredError(node) > THRESHOLD;
+    }
+    
+    /** Returns the squared error summed over every pixel of a Node
+    * @param node The given Node
+    * @return double The mean squared error times the number of pixels
+    */
+    private double totalSquaredError(Node node) {
+        return meanSquaredError(node) * node.getWidth() * node.getHeight();
+    }
+    
+    /** Gives a Node its children and updates the size and leaf statistics
+    * @param node The Node to be split
+    */
+    private void split(Node node) {
+        int created = createChildren(node);
+        int d = node.getDepth() + 1;
+        
+        size += created;
         
-        if (h == 1 && w == 1) { // down to a single pixel; a leaf
-            return;
+        // the Node stops being a leaf and its children start
+        numLeaves += created - 1;
+        leavesAtDepth[d - 1]--;
+        leavesAtDepth[d] += created;
+        maxDepth = Math.max(maxDepth, d);
+    }
+    
+    /** Gives a Node its children without touching the tree's statistics
+    * @param node The Node to be split
+    * @return int the number of children, 4 or 2 for a strip one pixel wide or tall
+    */
+    private static int createChildren(Node node) {
+        int[] b = new int[4 * NUM_CHILDREN];
+        childBounds(node.getX(), node.getY(), node.getWidth(), node.getHeight(), b);
+        int d = node.getDepth() + 1;
+        
+        node.setNW(child(b, 0, d));
+        node.setNE(child(b, 1, d));
+        node.setSW(child(b, 2, d));
+        node.setSE(child(b, 3, d));
+        return (node.getNE() == null ? 0 : 1) + (node.getSW() == null ? 0 : 1) + (node.getSE() == null ? 0 : 1) + 1;
+    }
+    
+    /** Returns the Node for one child's bounds, or null if the child is empty */
+    private static Node child(int[] b, int c, int depth) {
+        if (isEmpty(b, c)) {
+            return null;
+        }
+        return new Node(b[4 * c], b[4 * c + 1], b[4 * c + 3], b[4 * c + 2], depth);
+    }
+    
+    /** Computes where the 4 children of a Node lie. Every tree and codec
+    * splits through here so that they all agree on the geometry. The west
+    * children get the extra column of an odd width and the north children
+    * the extra row of an odd height, so the NW child is never empty, while
+    * the east children of a Node one pixel wide and the south children of a
+    * Node one pixel tall are empty.
+    * @param x The x coordinate of the Node
+    * @param y The y coordinate of the Node
+    * @param w The width of the Node
+    * @param h The height of the Node
+    * @param bounds Filled with x, y, width, height of the NW, NE, SW and SE children, in that order
+    */
+    public static void childBounds(int x, int y, int w, int h, int[] bounds) {
+        int west = w - w / 2; // the width of the west children
+        int north = h - h / 2; // the height of the north children
+        // NW
+        bounds[0] = x;
+        bounds[1] = y;
+        bounds[2] = west;
+        bounds[3] = north;
+        // NE
+        bounds[4] = x + west;
+        bounds[5] = y;
+        bounds[6] = w / 2;
+        bounds[7] = north;
+        // SW
+        bounds[8] = x;
+        bounds[9] = y + north;
+        bounds[10] = west;
+        bounds[11] = h / 2;
+        // SE
+        bounds[12] = x + west;
+        bounds[13] = y + north;
+        bounds[14] = w / 2;
+        bounds[15] = h / 2;
+    }
+    
+    /** Returns whether a child filled in by childBounds covers no pixels
+    * @param bounds The bounds from childBounds
+    * @param c The index of the child: 0 for NW, 1 for NE, 2 for SW, 3 for SE
+    * @return boolean True if the child has no width or no height
+    */
+    public static boolean isEmpty(int[] bounds, int c) {
+        return bounds[4 * c + 2] == 0 || bounds[4 * c + 3] == 0;
+    }
+    
+    //---------------- nested BuildTask class ----------------
+    /** Builds the subtree under one Node, forking a task per child while
+    * the Node is larger than PARALLEL_CUTOFF pixels. Each task counts the
+    * Nodes it creates and the depths of its leaves; parents add up their
+    * children's counts after joining, so no shared counter is needed.
+    */
+    private class BuildTask extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+        private final Node node; // the root of the subtree to build
+        private int created; // the number of Nodes created under the subtree
+        private final int[] leafDepths = new int[Integer.SIZE + 1]; // how many leaves sit at each depth
+        
+        public BuildTask(Node node) {
+            this.node = node;
         }
         
-        if (meanSquaredError(node) > THRESHOLD) {
-            node.setNW(new Node(x, y, h / 2, w / 2));
-            node.setNE(new Node(x + h / 2, y, h - h / 2, w / 2));
-            node.setSW(new Node(x, y + w / 2, h / 2, w - w / 2));
-            node.setSE(new Node(x + h / 2, y + w / 2, h - h / 2, w - w / 2));
+        @Override
+        protected void compute() {
+            if ((long) node.getWidth() * node.getHeight() <= PARALLEL_CUTOFF) {
+                build(node);
+                return;
+            }
+            if (!isDetailed(node)) {
+                leafDepths[node.getDepth()]++;
+                return;
+            }
+            created += createChildren(node);
+            ArrayList<BuildTask> tasks = new ArrayList<BuildTask>(NUM_CHILDREN);
+            for (Node child : new Node[] {node.getNW(), node.getNE(), node.getSW(), node.getSE()}) {
+                if (child != null) {
+                    tasks.add(new BuildTask(child));
+                }
+            }
+            invokeAll(tasks);
+            for (BuildTask task : tasks) {
+                created += task.created;
+                for (int d = 0; d < leafDepths.length; d++) {
+                    leafDepths[d] += task.leafDepths[d];
+                }
+            }
+        }
+        
+        /** Builds a small subtree sequentially, depth first */
+        private void build(Node n) {
+            if (n == null) {
+                return;
+            }
+            if (!isDetailed(n)) {
+                leafDepths[n.getDepth()]++;
+                return;
+            }
+            created += createChildren(n);
+            build(n.getNW());
+            build(n.getNE());
+            build(n.getSW());
+            build(n.getSE());
+        }
+    } //----------- end of nested BuildTask class -----------
+    
+    /** Divides the QuadTree into Nodes until it can no longer divide, building
+    * independent subtrees in parallel on the shared WorkerPool. Produces the
+    * same tree as divide().
+    */
+    public void divideInParallel() {
+        try (Metrics.Timer timer = Metrics.start(Metrics.Stage.DIVIDE)) {
+            clear();
+            img.getIntegralImage(); // build the tables once, before the workers share them
+            BuildTask task = new BuildTask(root);
+            WorkerPool.get().invoke(task);
             
-            queue.add(node.getNW());
-            queue.add(node.getNE());
-            queue.add(node.getSW());
-            queue.add(node.getSE());
+            size = 1 + task.created;
+            numLeaves = 0;
+            maxDepth = 0;
+            for (int d = 0; d < task.leafDepths.length; d++) {
+                leavesAtDepth[d] = task.leafDepths[d];
+                numLeaves += task.leafDepths[d];
+                if (task.leafDepths[d] > 0) {
+                    maxDepth = d;
+                }
+            }
+            record(timer);
+        }
+    }
+    
+    /** Receives the compressed image each time progressive refinement reaches a compression level */
+    public interface SnapshotHandler {
+        /** Handles one snapshot. The image is reused for later snapshots and must be copied before it is modified.
+        * @param level The index of the compression level that was reached
+        * @param compressed The compressed image at that level
+        */
+        void accept(int level, Image compressed) throws IOException;
+    }
+    
+    /** Divides the QuadTree progressively, always splitting the leaf with the highest
+    * area-weighted mean squared error next, and hands a compressed image to the handler as the compression
+    * level crosses each of the given levels. The compressed image is painted once and then
+    * only the leaves created since the previous snapshot are repainted.
+    * @param compressionLvls The compression levels to stop at, in increasing order
+    * @param handler The receiver of each snapshot
+    */
+    public void divideProgressively(double[] compressionLvls, SnapshotHandler handler) throws IOException {
+        clear();
+        // the leaf whose split removes the most total error first: its mean squared error weighted by its area
+        PriorityQueue<Node> queue = new PriorityQueue<Node>(
+            (a, b) -> Double.compare(totalSquaredError(b), totalSquaredError(a)));
+        ArrayList<Node> changed = new ArrayList<Node>(); // Nodes created since the last snapshot
+        if (isDetailed(root)) {
+            queue.add(root);
+        }
+        
+        Image compressed = new Image(img.getWidth(), img.getHeight());
+        changed.add(root);
+        
+        for (int level = 0; level < compressionLvls.length; level++) {
+            try (Metrics.Timer timer = Metrics.start(Metrics.Stage.DIVIDE)) {
+                while (!queue.isEmpty() && getCompressionLevel() < compressionLvls[level]) {
+                    Node node = queue.poll();
+                    split(node);
+                    for (Node child : new Node[] {node.getNW(), node.getNE(), node.getSW(), node.getSE()}) {
+                        if (child == null) {
+                            continue;
+                        }
+                        changed.add(child);
+                        if (isDetailed(child)) {
+                            queue.add(child);
+                        }
+                    }
+                }
+                if (level == compressionLvls.length - 1) { // the tree holds the splits of every level, so it is recorded once
+                    record(timer);
+                }
+            }
             
-            size += 4;
+            // repaint only the leaves that appeared since the last snapshot
+            try (Metrics.Timer timer = Metrics.start(Metrics.Stage.COMPRESS)) {
+                for (Node node : changed) {
+                    if (node.isLeaf()) {
+                        timer.addPixels((long) node.getWidth() * node.getHeight());
+                        fillWithMeanColor(node, compressed);
+                    }
+                }
+            }
+            changed.clear();
+            handler.accept(level, compressed);
         }
     }
     
@@ -288,6 +558,9 @@ public class QuadTree {
     * @return int The number of leaves
     */
     public int getNumLeaves(Node node){
+        if (node == null) {
+            return 0;
+        }
         if (node.isLeaf()) {
             return 1;
         }
@@ -299,120 +572,217 @@ public class QuadTree {
         return numLeaves;
     }
     
-    /** Outlines the QuadTree Nodes recursively by taking
-    * the given Node and outlining its four children
+    /** Outlines the QuadTree Nodes under the given Node in red on the image
     * @param node The given Node
     */
     public void outline(Node node) {
+        getOutline(node).paint(img);
+    }
+    
+    /** Returns the outline of the given Node and its descendants, to be
+    * laid over an image the size of the QuadTree's
+    * @param node The given Node
+    * @return Outline the borders of the leaves under the Node
+    */
+    public Outline getOutline(Node node) {
+        try (Metrics.Timer timer = Metrics.start(Metrics.Stage.OUTLINE)) {
+            timer.addPixels((long) img.getWidth() * img.getHeight());
+            Outline outline = new Outline(img.getWidth(), img.getHeight());
+            addLeafBorders(node, outline);
+            return outline;
+        }
+    }
+    
+    /** Private helper method to add the borders of the leaves under a Node,
+    * which cover the borders of every Node above them
+    * @param node The given Node
+    * @param outline The outline to add to
+    */
+    private void addLeafBorders(Node node, Outline outline) {
         if (node == null) {
             return;
         }
         
-        int endY = node.getHeight() + node.getY(); // ending y-axis bound
-        int endX = node.getWidth() + node.getX(); // ending x-axis bound
-        
-        for (int i = node.getY(); i < endY; i++) {
-            for (int j = node.getX(); j < endX; j++) {
-                if (i == node.getY() || i == endY - 1
-                || j == node.getX() || j == endX - 1) { // border of node
-                    img.getImg()[i][j] = Color.red;
-                }
-            }
+        if (node.isLeaf()) {
+            outline.addBorder(node.getX(), node.getY(), node.getWidth(), node.getHeight());
+            return;
         }
         
-        outline(node.getNW());
-        outline(node.getNE());
-        outline(node.getSW());
-        outline(node.getSE());
+        addLeafBorders(node.getNW(), outline);
+        addLeafBorders(node.getNE(), outline);
+        addLeafBorders(node.getSW(), outline);
+        addLeafBorders(node.getSE(), outline);
     }
 
+    /** Compresses the image by filling every leaf with its mean color
+    * @return Image The compressed image
+    */
     public Image compress() {
-        Color[][] matrix = new Color[img.getHeight()][img.getWidth()];
-        fillWithMeanColor(root, matrix);
-        /*for (int i = 0; i < matrix.length; i++) {
-            for (int j = 0; j < matrix[i].length; j++) {
-                System.out.println(matrix[i][j]);
-            }
-        }*/
-        return new Image(matrix);
+        Image compressed = new Image(img.getWidth(), img.getHeight());
+        try (Metrics.Timer timer = Metrics.start(Metrics.Stage.COMPRESS)) {
+            timer.addPixels((long) img.getWidth() * img.getHeight());
+            fillWithMeanColor(root, compressed);
+        }
+        return compressed;
     }
     
     /** Compresses the image by filling its Nodes with its mean color
     * recursively by filling the given Node's children
     * @param node The given Node
+    * @param out The image to fill
     */
-    public void fillWithMeanColor(Node node, Color[][] matrix) {
+    public void fillWithMeanColor(Node node, Image out) {
         if (node == null) {
             return;
         }
         
         if (node.isLeaf()) { // if it has no more children, fill
-            Color meanColor = meanColor(node);
-            for (int i = node.getX(); i <  node.getX() + node.getWidth(); i++) {
-                for (int j = node.getY(); j < node.getY() + node.getHeight(); j++) {
-                    matrix[j][i] = meanColor;
-                }  
+            int meanColor = meanRGB(node);
+            int[] pixels = out.getPixels();
+            for (int j = node.getY(); j < node.getY() + node.getHeight(); j++) {
+                int rowStart = j * out.getWidth();
+                Arrays.fill(pixels, rowStart + node.getX(), rowStart + node.getX() + node.getWidth(), meanColor);
             }
         } 
         
-        fillWithMeanColor(node.getNW(), matrix);
-        fillWithMeanColor(node.getNE(), matrix);
-        fillWithMeanColor(node.getSW(), matrix);
-        fillWithMeanColor(node.getSE(), matrix);
+        fillWithMeanColor(node.getNW(), out);
+        fillWithMeanColor(node.getNE(), out);
+        fillWithMeanColor(node.getSW(), out);
+        fillWithMeanColor(node.getSE(), out);
     }
     
     /** Applies the edge detection filter on the image, but 
-    * only on Nodes of sufficiently small size to save time 
+    * only on Nodes of sufficiently small size to save time,
+    * leaving the pixels on the image's border black
     */
     public void edgeDetection() {
-        Color[][] matrix = new Color[img.getHeight()][img.getWidth()];
-        edgeDetectionRec(root, SUFFICIENTLY_SMALL_NODE_SIZE, matrix);
-        img.setImg(matrix);
+        edgeDetection(Convolution.BorderMode.CLAMP);
+        clearBorder(img);
     }
     
-    /** Private helper method to apply the edge detection filter
-    * @param node
-    * @param nodeThreshold
-    * @param matrix
+    /** Applies the edge detection filter on the image, but 
+    * only on Nodes of sufficiently small size to save time 
+    * @param mode How to fill in pixels outside the image
     */
-    private void edgeDetectionRec(Node node, double nodeThreshold, Color[][] matrix) {
-        // img.grayscale();
-        if (node.isLeaf()) {
+    public void edgeDetection(Convolution.BorderMode mode) {
+        detectEdges(img, getDetailedRegions(), mode);
+    }
+    
+    /** Returns the detailed regions of the QuadTree: the largest divided Nodes whose height
+    * is at most SUFFICIENTLY_SMALL_NODE_SIZE, which hold every edge edge detection finds
+    * @return List<TileScheduler.Tile> the regions, each with the halo the edge kernel reads
+    */
+    public List<TileScheduler.Tile> getDetailedRegions() {
+        List<TileScheduler.Tile> regions = new ArrayList<TileScheduler.Tile>();
+        addDetailedRegions(root, regions);
+        return regions;
+    }
+    
+    /** Private helper method to find the detailed regions under a Node
+    * @param node The given Node
+    * @param regions The list to add the regions to
+    */
+    private void addDetailedRegions(Node node, List<TileScheduler.Tile> regions) {
+        if (node == null || node.isLeaf()) { // a leaf has little detail
             return;
         }
         
-        if (node.getHeight() <= nodeThreshold) { // if small enough node
-            for (int i = node.getY(); i < node.getY() + node.getHeight(); i++) { // for each pixel in node
-                for (int j = node.getX(); j < node.getX() + node.getWidth(); j++) {
-                    if (i == 0 || i == img.getHeight() - 1 || j == 0 || j == img.getWidth() - 1) { // if node is on the edge of the image
-                        matrix[i][j] = Color.black;
-                    } else { // node is not on the edge, so no index out of bounds
-                        int weight = EDGE_DETECT_KERNEL[0] * getRGB(img.getImg()[i-1][j-1]) + EDGE_DETECT_KERNEL[1] * getRGB(img.getImg()[i][j-1])
-                        + EDGE_DETECT_KERNEL[2] * getRGB(img.getImg()[i+1][j-1]) + EDGE_DETECT_KERNEL[3] * getRGB(img.getImg()[i-1][j]) 
-                        + EDGE_DETECT_KERNEL[4] * getRGB(img.getImg()[i][j]) + EDGE_DETECT_KERNEL[5] * getRGB(img.getImg()[i+1][j])
-                        + EDGE_DETECT_KERNEL[6] * getRGB(img.getImg()[i-1][j+1]) + EDGE_DETECT_KERNEL[7] * getRGB(img.getImg()[i][j+1])
-                        + EDGE_DETECT_KERNEL[8] * getRGB(img.getImg()[i+1][j+1]);
-                        
-                        if (Math.abs(weight) > EDGE_THRESHOLD) { // if it is an edge
-                            matrix[i][j] = Color.white;
-                        } else {
-                            matrix[i][j] = Color.black;
-                        }
-                    }
-                }
+        if (node.getHeight() <= SUFFICIENTLY_SMALL_NODE_SIZE) { // if small enough node
+            // its children are covered too, so there is no need to recurse
+            regions.add(new TileScheduler.Tile(node.getX(), node.getY(), node.getWidth(), node.getHeight(),
+                EDGE_RADIUS, img.getWidth(), img.getHeight()));
+            return;
+        }
+        
+        addDetailedRegions(node.getNW(), regions);
+        addDetailedRegions(node.getNE(), regions);
+        addDetailedRegions(node.getSW(), regions);
+        addDetailedRegions(node.getSE(), regions);
+    }
+    
+    /** Applies the edge detection filter to the given regions of an image, in parallel on the
+    * WorkerPool, and makes the rest of the image black. Each region reads only itself and its
+    * halo, so the work grows with the area of the regions rather than the image's.
+    * @param img The image, replaced by its edges
+    * @param regions The disjoint regions to detect edges in, with the halo of the edge kernel
+    * @param mode How to fill in pixels outside the image
+    */
+    public static void detectEdges(Image img, List<TileScheduler.Tile> regions, Convolution.BorderMode mode) {
+        try (Metrics.Timer timer = Metrics.start(Metrics.Stage.EDGES)) {
+            int[] offsets = new int[regions.size() + 1]; // where each region's edges start in edges
+            for (int k = 0; k < regions.size(); k++) {
+                offsets[k + 1] = offsets[k] + regions.get(k).getWidth() * regions.get(k).getHeight();
             }
-        } else { // not small enough node; prob has little detail; set black
-            for (int i = node.getY(); i < node.getY() + node.getHeight(); i++) { // for each pixel in node
-                for (int j = node.getX(); j < node.getX() + node.getWidth(); j++) {
-                    matrix[i][j] = Color.black;
+            timer.addPixels(offsets[regions.size()]);
+            int[] edges = new int[offsets[regions.size()]];
+            int[] pixels = img.getPixels();
+            int w = img.getWidth();
+            
+            // every region is read before any pixel is written, since halos cross into other regions
+            TileScheduler.forEach(regions.size(), k -> detectEdges(pixels, w, regions.get(k), mode, edges, offsets[k]));
+            
+            Arrays.fill(pixels, Image.BLACK); // the background, cleared once
+            for (int k = 0; k < regions.size(); k++) {
+                TileScheduler.Tile region = regions.get(k);
+                for (int i = 0; i < region.getHeight(); i++) {
+                    System.arraycopy(edges, offsets[k] + i * region.getWidth(),
+                        pixels, (region.getY() + i) * w + region.getX(), region.getWidth());
                 }
             }
         }
+        img.invalidateIntegralImage();
+    }
+    
+    /** Makes the pixels on the border of an image black, where the edge kernel
+    * would read past the image
+    * @param img The image of edges
+    */
+    public static void clearBorder(Image img) {
+        int[] pixels = img.getPixels();
+        int w = img.getWidth();
+        int h = img.getHeight();
+        Arrays.fill(pixels, 0, w, Image.BLACK);
+        Arrays.fill(pixels, (h - 1) * w, h * w, Image.BLACK);
+        for (int i = 1; i < h - 1; i++) {
+            pixels[i * w] = Image.BLACK;
+            pixels[i * w + w - 1] = Image.BLACK;
+        }
+        img.invalidateIntegralImage();
+    }
+    
+    /** Private helper method to apply the edge detection filter to one region
+    * @param pixels the packed pixels of the image, row by row
+    * @param width the width of the image
+    * @param region the region and the halo it may read
+    * @param mode How to fill in pixels outside the image
+    * @param edges the output, where the region's pixels are written row by row
+    * @param offset the index in edges of the region's first pixel
+    */
+    private static void detectEdges(int[] pixels, int width, TileScheduler.Tile region, Convolution.BorderMode mode,
+            int[] edges, int offset) {
+        // the intensities of the region and its halo; the halo stops only at the image's
+        // edges, so the border mode fills in the same samples it would for the whole image
+        int patchWidth = region.getHaloWidth();
+        int patchHeight = region.getHaloHeight();
+        float[] intensity = new float[patchWidth * patchHeight];
+        for (int i = 0; i < patchHeight; i++) {
+            PixelOps.intensity(pixels, (region.getHaloY() + i) * width + region.getHaloX(), intensity, i * patchWidth, patchWidth);
+        }
         
-        edgeDetectionRec(node.getNW(), nodeThreshold, matrix);
-        edgeDetectionRec(node.getNE(), nodeThreshold, matrix);
-        edgeDetectionRec(node.getSW(), nodeThreshold, matrix);
-        edgeDetectionRec(node.getSE(), nodeThreshold, matrix);
+        float[] weights = new float[intensity.length];
+        int x = region.getX() - region.getHaloX();
+        int y = region.getY() - region.getHaloY();
+        Convolution.convolve(intensity, patchWidth, patchHeight, EDGE_KERNEL, mode,
+            x, y, region.getWidth(), region.getHeight(), weights);
+        for (int i = 0; i < region.getHeight(); i++) { // for each pixel in region
+            for (int j = 0; j < region.getWidth(); j++) {
+                if (Math.abs(weights[(y + i) * patchWidth + x + j]) > EDGE_THRESHOLD) { // if it is an edge
+                    edges[offset + i * region.getWidth() + j] = Image.WHITE;
+                } else {
+                    edges[offset + i * region.getWidth() + j] = Image.BLACK;
+                }
+            }
+        }
     }
     
     /** Returns an integer representation of a Color's RGB values
@@ -0,0 +1,317 @@
+/* Names: Emma Lee and Rachel Nguyen
+* File: QuadTreeCodec.java
+* Desc:
+*
+* A compact file format for a divided QuadTree.
+*
+* Stores only the shape of the tree and the mean color of each
+* leaf. After an uncompressed header (magic, width, height), a
+* deflated body walks the tree in preorder:
+*   - the root is one byte, 1 if it is divided and 0 if not;
+*   - every divided Node is one byte whose low 4 bits say which of
+*     its NW, NE, SW, SE children are divided, followed by each
+*     child in order: a divided child recursively, a leaf as 3
+*     bytes of red, green and blue, each the difference (mod 256)
+*     from the previous leaf.
+* Child geometry comes from QuadTree.childBounds, so it is never
+* stored; the empty children of a strip one pixel wide or tall are
+* known from it too and take no bytes at all. Both directions
+* stream: the encoder writes as it walks the tree and the decoder
+* paints each leaf into the raster as soon as its color is read.
+* decodeTree instead rebuilds the tree, which LinearQuadTree.render
+* can then draw at any level of detail or for any viewport.
+*
+*/
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Arrays;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.InflaterInputStream;
+
+public class QuadTreeCodec {
+    public static final String FILETYPE = ".qtc"; // the file type of the format
+    public static final int MAGIC = 0x51544331; // "QTC1"
+    public static final int BUFFER_SIZE = 1 << 16; // size of the stream buffers
+    public static final int HEADER_BYTES = 3 * Integer.BYTES; // the magic, width and height
+    public static final int ROOT_BYTES = 1; // the byte saying whether the root is divided
+    public static final int DIVIDED_BYTES = 1; // the child mask of a divided Node
+    public static final int LEAF_BYTES = 3; // the color of a leaf
+
+    //---------------- nested Encoder class ----------------
+    /** Writes leaf colors as deltas from the previous leaf */
+    private static class Encoder {
+        private final OutputStream out; // the deflated body
+        private final LinearQuadTree tree; // the tree being written
+        private int previous = Image.BLACK; // the color of the previous leaf
+
+        public Encoder(OutputStream out, LinearQuadTree tree) {
+            this.out = out;
+            this.tree = tree;
+        }
+
+        /** Writes a divided Node and everything under it */
+        public void writeDivided(int node) throws IOException {
+            int first = tree.getFirstChild(node);
+            int mask = 0;
+            for (int c = 0; c < QuadTree.NUM_CHILDREN; c++) {
+                if (!tree.isLeaf(first + c)) {
+                    mask |= 1 << c;
+                }
+            }
+            out.write(mask);
+            for (int c = 0; c < QuadTree.NUM_CHILDREN; c++) {
+                if (tree.isEmpty(first + c)) {
+                    continue;
+                }
+                if (tree.isLeaf(first + c)) {
+                    writeLeaf(first + c);
+                } else {
+                    writeDivided(first + c);
+                }
+            }
+        }
+
+        /** Writes the color of a leaf */
+        public void writeLeaf(int node) throws IOException {
+            int color = tree.getMeanRGB(node);
+            out.write(Image.red(color) - Image.red(previous));
+            out.write(Image.green(color) - Image.green(previous));
+            out.write(Image.blue(color) - Image.blue(previous));
+            previous = color;
+        }
+    } //----------- end of nested Encoder class -----------
+
+    //---------------- nested Decoder class ----------------
+    /** Reads the preorder body, painting leaves into a raster or building a tree */
+    private static class Decoder {
+        private final InputStream in; // the inflated body
+        private final Image img; // the image being painted; null when building a tree
+        private int previous = Image.BLACK; // the color of the previous leaf
+
+        public Decoder(InputStream in, Image img) {
+            this.in = in;
+            this.img = img;
+        }
+
+        /** Reads one byte, failing at the end of the stream */
+        private int next() throws IOException {
+            int b = in.read();
+            if (b < 0) {
+                throw new EOFException("truncated quadtree body");
+            }
+            return b;
+        }
+
+        /** Reads a divided Node and everything under it */
+        public void readDivided(int x, int y, int w, int h) throws IOException {
+            if ((long) w * h <= 1) {
+                throw new IOException("Node at " + x + "," + y + " cannot be divided");
+            }
+            int mask = next();
+            int[] bounds = new int[4 * QuadTree.NUM_CHILDREN];
+            QuadTree.childBounds(x, y, w, h, bounds);
+            for (int c = 0; c < QuadTree.NUM_CHILDREN; c++) {
+                if (QuadTree.isEmpty(bounds, c)) {
+                    continue;
+                }
+                int cx = bounds[4 * c];
+                int cy = bounds[4 * c + 1];
+                int cw = bounds[4 * c + 2];
+                int ch = bounds[4 * c + 3];
+                if ((mask & (1 << c)) != 0) {
+                    readDivided(cx, cy, cw, ch);
+                } else {
+                    readLeaf(cx, cy, cw, ch);
+                }
+            }
+        }
+
+        /** Reads the color of the next leaf
+        * @return int the packed color
+        */
+        public int readColor() throws IOException {
+            int r = (Image.red(previous) + next()) & 0xFF;
+            int g = (Image.green(previous) + next()) & 0xFF;
+            int b = (Image.blue(previous) + next()) & 0xFF;
+            previous = Image.pack(r, g, b);
+            return previous;
+        }
+
+        /** Reads a divided Node and everything under it into a tree
+        * @param tree The tree being built
+        * @param node The Node, still a leaf of the tree
+        */
+        public void readDivided(LinearQuadTree tree, int node) throws IOException {
+            if ((long) tree.getWidth(node) * tree.getHeight(node) <= 1) {
+                throw new IOException("Node " + node + " cannot be divided");
+            }
+            int mask = next();
+            int first = tree.split(node);
+            for (int c = 0; c < QuadTree.NUM_CHILDREN; c++) {
+                if (tree.isEmpty(first + c)) {
+                    continue;
+                }
+                if ((mask & (1 << c)) != 0) {
+                    readDivided(tree, first + c);
+                } else {
+                    tree.setMeanRGB(first + c, readColor());
+                }
+            }
+        }
+
+        /** Reads the color of a leaf and fills its pixels */
+        public void readLeaf(int x, int y, int w, int h) throws IOException {
+            readColor();
+            int[] pixels = img.getPixels();
+            int width = img.getWidth();
+            for (int j = y; j < y + h; j++) {
+                Arrays.fill(pixels, j * width + x, j * width + x + w, previous);
+            }
+        }
+    } //----------- end of nested Decoder class -----------
+
+    /** Encodes a tree to a stream
+    * @param tree The divided tree; its leaves' cached mean colors are stored
+    * @param out The stream to write to; left open
+    */
+    public static void encode(LinearQuadTree tree, OutputStream out) throws IOException {
+        try (Metrics.Timer timer = Metrics.start(Metrics.Stage.ENCODE)) {
+            timer.addPixels((long) tree.getWidth() * tree.getHeight());
+            DataOutputStream header = new DataOutputStream(out);
+            header.writeInt(MAGIC);
+            header.writeInt(tree.getWidth());
+            header.writeInt(tree.getHeight());
+            header.flush();
+
+            Deflater deflater = new Deflater(Deflater.BEST_COMPRESSION);
+            DeflaterOutputStream deflated = new DeflaterOutputStream(out, deflater, BUFFER_SIZE);
+            OutputStream body = new BufferedOutputStream(deflated, BUFFER_SIZE);
+            Encoder encoder = new Encoder(body, tree);
+            int root = tree.getRoot();
+            if (tree.isLeaf(root)) {
+                body.write(0);
+                encoder.writeLeaf(root);
+            } else {
+                body.write(1);
+                encoder.writeDivided(root);
+            }
+            body.flush();
+            deflated.finish();
+            deflater.end();
+        }
+    }
+
+    /** Returns the most bytes a file can take, given the size of its body before it
+    * is deflated. The body of a tree is ROOT_BYTES, plus DIVIDED_BYTES per divided
+    * Node and LEAF_BYTES per leaf; deflating never grows it by more than zlib's bound.
+    * @param bodyBytes The size of the body before deflating
+    * @return long the size of the file, at most
+    */
+    public static long maxFileBytes(long bodyBytes) {
+        return HEADER_BYTES + bodyBytes + (bodyBytes >> 12) + (bodyBytes >> 14) + (bodyBytes >> 25) + 13;
+    }
+
+    /** Reads and checks the header
+    * @return int[] the width and height
+    */
+    private static int[] readHeader(InputStream in) throws IOException {
+        DataInputStream header = new DataInputStream(in);
+        if (header.readInt() != MAGIC) {
+            throw new IOException("not a quadtree file");
+        }
+        int width = header.readInt();
+        int height = header.readInt();
+        if (width <= 0 || height <= 0) {
+            throw new IOException("malformed quadtree header: " + width + "x" + height);
+        }
+        return new int[] {width, height};
+    }
+
+    /** Wraps the rest of the stream in an inflater */
+    private static InputStream body(InputStream in) {
+        return new BufferedInputStream(new InflaterInputStream(in), BUFFER_SIZE);
+    }
+
+    /** Decodes a stream straight into a raster
+    * @param in The stream to read from; left open
+    * @return Image the decoded image
+    */
+    public static Image decode(InputStream in) throws IOException {
+        int[] size = readHeader(in);
+        int width = size[0];
+        int height = size[1];
+        if ((long) width * height > Integer.MAX_VALUE) {
+            throw new IOException("quadtree image too large: " + width + "x" + height);
+        }
+
+        Image img = new Image(new int[width * height], width, height);
+        Decoder decoder = new Decoder(body(in), img);
+        if (decoder.next() == 0) {
+            decoder.readLeaf(0, 0, width, height);
+        } else {
+            decoder.readDivided(0, 0, width, height);
+        }
+        return img;
+    }
+
+    /** Decodes a stream into a tree, for rendering thumbnails and viewports
+    * with LinearQuadTree.render. Divided Nodes get the area-weighted mean of their leaves.
+    * @param in The stream to read from; left open
+    * @return LinearQuadTree the decoded tree, with no image behind it
+    */
+    public static LinearQuadTree decodeTree(InputStream in) throws IOException {
+        int[] size = readHeader(in);
+        LinearQuadTree tree = new LinearQuadTree(size[0], size[1]);
+        Decoder decoder = new Decoder(body(in), null);
+        if (decoder.next() == 0) {
+            tree.setMeanRGB(tree.getRoot(), decoder.readColor());
+        } else {
+            decoder.readDivided(tree, tree.getRoot());
+        }
+        tree.computeInternalMeans();
+        return tree;
+    }
+
+    /** Writes a tree to a file
+    * @param tree The divided tree
+    * @param filename the filename to be written to
+    */
+    public static void write(LinearQuadTree tree, String filename) throws IOException {
+        try (OutputStream out = new BufferedOutputStream(new FileOutputStream(filename), BUFFER_SIZE)) {
+            encode(tree, out);
+        }
+    }
+
+    /** Reads a file into a tree
+    * @param filename the filename to be read
+    * @return LinearQuadTree the decoded tree
+    */
+    public static LinearQuadTree readTree(String filename) throws IOException {
+        try (Metrics.Timer timer = Metrics.start(Metrics.Stage.READ);
+            InputStream in = new BufferedInputStream(new FileInputStream(filename), BUFFER_SIZE)) {
+            timer.addBytes(new File(filename).length());
+            return decodeTree(in);
+        }
+    }
+
+    /** Reads a file into an image
+    * @param filename the filename to be read
+    * @return Image the decoded image
+    */
+    public static Image read(String filename) throws IOException {
+        try (InputStream in = new BufferedInputStream(new FileInputStream(filename), BUFFER_SIZE)) {
+            return decode(in);
+        }
+    }
+}
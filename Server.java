@@ -0,0 +1,301 @@
+/* Names: Emma Lee and Rachel Nguyen
+* File: Server.java
+* Desc:
+*
+* A local HTTP service that keeps the program warm between requests.
+*
+* Each request POSTs the bytes of a P3 or P6 image and gets the
+* result back as a PPM in the response body:
+*   POST /compress?level=0.033  the image compressed by a QuadTree
+*                               divided to the given compression level
+*   POST /edges                 the QuadTree edge detection of the image
+*   POST /filter?chain=...      the image run through a filter chain,
+*                               in the syntax of the -f flag
+* The fully divided quadtree of every image is kept in the TreeCache,
+* so the same image sent again is not divided again.
+* Add outline=true to outline the QuadTree of /compress and /edges,
+* and format=P3 to get ASCII rather than binary output.
+* GET /health answers "ok", and GET /metrics the JSON report of
+* the -r flag so far.
+*
+* The request body is decoded as it arrives and the response is
+* encoded straight into the response body. The processing runs on
+* the shared WorkerPool; a fixed number of requests may wait for
+* it, and any more are turned away with 503 so that a burst of
+* requests cannot run the server out of memory.
+*
+*/
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Semaphore;
+import java.util.function.UnaryOperator;
+
+public class Server {
+    public static final int DEFAULT_QUEUE_LIMIT = 16; // the requests that may wait for a worker thread
+    public static final long MAX_PIXELS = 1L << 26; // the largest image a request may send, 64 megapixels
+    public static final int BACKLOG = 64; // the connections the operating system queues before the server accepts them
+    public static final String CONTENT_TYPE = "image/x-portable-pixmap"; // the media type of PPM images
+    public static final String RETRY_AFTER_SECONDS = "1"; // how long a turned away client is asked to wait
+
+    private final HttpServer server; // the underlying server
+    private final ExecutorService io; // the threads that read requests and write responses
+    private final Semaphore admitted; // permits for the requests being processed or waiting to be
+
+    //---------------- nested BadRequestException class ----------------
+    /** Thrown for a request that can never succeed as sent */
+    private static class BadRequestException extends Exception {
+        private static final long serialVersionUID = 1L;
+
+        public BadRequestException(String message) {
+            super(message);
+        }
+    } //----------- end of nested BadRequestException class -----------
+
+    /** Creates a server, not yet started
+    * @param port The port to listen on; 0 for any free port
+    * @param queueLimit The most requests that may wait for a worker thread
+    */
+    public Server(int port, int queueLimit) throws IOException {
+        if (queueLimit < 0) {
+            throw new IllegalArgumentException("queue limit must not be negative: " + queueLimit);
+        }
+        server = HttpServer.create(new InetSocketAddress(port), BACKLOG);
+        io = Batch.newIoExecutor();
+        admitted = new Semaphore(WorkerPool.getThreads() + queueLimit);
+        server.setExecutor(io);
+        server.createContext("/compress", new ImageHandler(query -> {
+            double level = parseLevel(query.get("level"));
+            boolean outline = Boolean.parseBoolean(query.get("outline"));
+            return img -> {
+                LinearQuadTree tree = cachedTree(img).prune(level);
+                Image compressed = tree.compress();
+                if (outline) {
+                    tree.setImg(compressed);
+                    tree.outline();
+                }
+                return compressed;
+            };
+        }));
+        server.createContext("/edges", new ImageHandler(query -> {
+            boolean outline = Boolean.parseBoolean(query.get("outline"));
+            return img -> {
+                LinearQuadTree tree = cachedTree(img).prune(Double.POSITIVE_INFINITY);
+                tree.setImg(img);
+                tree.edgeDetection();
+                if (outline) {
+                    tree.outline();
+                }
+                return img;
+            };
+        }));
+        server.createContext("/filter", new ImageHandler(query -> {
+            String chain = query.get("chain");
+            if (chain == null) {
+                throw new BadRequestException("missing chain, e.g. chain=grayscale,blur:5");
+            }
+            Pipeline filters;
+            try {
+                filters = Pipeline.parse(chain);
+            } catch (IllegalArgumentException e) {
+                throw new BadRequestException(e.getMessage());
+            }
+            return img -> {
+                filters.apply(img);
+                return img;
+            };
+        }));
+        server.createContext("/health", exchange -> {
+            if (!"GET".equals(exchange.getRequestMethod())) {
+                sendText(exchange, 405, "use GET");
+                return;
+            }
+            sendText(exchange, 200, "ok");
+        });
+        server.createContext("/metrics", exchange -> {
+            if (!"GET".equals(exchange.getRequestMethod())) {
+                sendText(exchange, 405, "use GET");
+                return;
+            }
+            if (!Metrics.isEnabled()) {
+                sendText(exchange, 404, "metrics are off; start the server with " + Main.REPORT_FLAG);
+                return;
+            }
+            sendText(exchange, 200, Metrics.toJson());
+        });
+    }
+
+    public int getPort() {
+        return server.getAddress().getPort();
+    }
+
+    public void start() {
+        server.start();
+        System.out.println("listening on port " + getPort());
+    }
+
+    /** Stops accepting requests and waits up to a given time for those in progress
+    * @param delaySeconds The most seconds to wait
+    */
+    public void stop(int delaySeconds) {
+        server.stop(delaySeconds);
+        io.shutdown();
+    }
+
+    /** Turns the query parameters of a request into the work to do on its image */
+    private interface Operation {
+        /** Checks the parameters before the image is read
+        * @param query The query parameters
+        * @return UnaryOperator<Image> the work, which may change the image it is given and returns the image to send back
+        */
+        UnaryOperator<Image> parse(Map<String, String> query) throws BadRequestException;
+    }
+
+    //---------------- nested ImageHandler class ----------------
+    /** Decodes the posted image, processes it on the WorkerPool and encodes the result */
+    private class ImageHandler implements HttpHandler {
+        private final Operation operation; // the work the handler does
+
+        public ImageHandler(Operation operation) {
+            this.operation = operation;
+        }
+
+        @Override
+        public void handle(HttpExchange exchange) throws IOException {
+            try {
+                if (!"POST".equals(exchange.getRequestMethod())) {
+                    sendText(exchange, 405, "use POST with a PPM image as the body");
+                    return;
+                }
+                if (!admitted.tryAcquire()) {
+                    exchange.getResponseHeaders().set("Retry-After", RETRY_AFTER_SECONDS);
+                    sendText(exchange, 503, "too many requests waiting; try again");
+                    return;
+                }
+                try {
+                    respond(exchange);
+                } finally {
+                    admitted.release();
+                }
+            } finally {
+                exchange.close();
+            }
+        }
+
+        /** Handles an admitted request */
+        private void respond(HttpExchange exchange) throws IOException {
+            Map<String, String> query;
+            UnaryOperator<Image> work;
+            try {
+                query = parseQuery(exchange.getRequestURI().getRawQuery());
+                work = operation.parse(query);
+            } catch (BadRequestException | IllegalArgumentException e) {
+                sendText(exchange, 400, e.getMessage());
+                return;
+            }
+
+            Image img;
+            try (Metrics.Timer timer = Metrics.start(Metrics.Stage.READ);
+                InputStream body = exchange.getRequestBody()) {
+                img = PPM.read(body, MAX_PIXELS);
+                timer.addPixels((long) img.getWidth() * img.getHeight());
+            } catch (IOException e) {
+                sendText(exchange, 400, "could not read the image: " + e.getMessage());
+                return;
+            }
+
+            Image result;
+            try {
+                result = WorkerPool.get().submit(() -> work.apply(img)).get();
+            } catch (ExecutionException e) {
+                sendText(exchange, 500, String.valueOf(e.getCause()));
+                return;
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                sendText(exchange, 503, "interrupted");
+                return;
+            }
+
+            boolean binary = !PPM.ASCII_MAGIC.equalsIgnoreCase(query.get("format"));
+            exchange.getResponseHeaders().set("Content-Type", CONTENT_TYPE);
+            exchange.sendResponseHeaders(200, 0); // 0: the length is not known, so the body is sent in chunks
+            try (Metrics.Timer timer = Metrics.start(Metrics.Stage.WRITE);
+                OutputStream out = exchange.getResponseBody()) {
+                timer.addPixels((long) result.getWidth() * result.getHeight());
+                PPM.write(result, out, binary);
+            }
+        }
+    } //----------- end of nested ImageHandler class -----------
+
+    /** Returns the fully divided tree of an image from the shared TreeCache, so an
+    * image sent again at another level or with an outline is not divided again
+    * @param img The image
+    * @return LinearQuadTree the shared tree
+    */
+    private static LinearQuadTree cachedTree(Image img) {
+        try {
+            return TreeCache.get().tree(img);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /** Parses the compression level of a /compress request
+    * @param value The level parameter, a fraction of the pixels as in Main.COMPRESSION_LVLS
+    * @return double the compression level
+    */
+    private static double parseLevel(String value) throws BadRequestException {
+        if (value == null) {
+            throw new BadRequestException("missing level, e.g. level=0.033");
+        }
+        try {
+            double level = Double.parseDouble(value);
+            if (level > 0 && level <= 1) {
+                return level;
+            }
+        } catch (NumberFormatException e) {
+            // reported below
+        }
+        throw new BadRequestException("level must be a number in (0, 1]: " + value);
+    }
+
+    /** Splits a raw query string into its decoded parameters
+    * @param rawQuery The query, e.g. "level=0.2&outline=true"; or null
+    * @return Map<String, String> the parameters
+    */
+    private static Map<String, String> parseQuery(String rawQuery) {
+        Map<String, String> query = new HashMap<String, String>();
+        if (rawQuery == null) {
+            return query;
+        }
+        for (String pair : rawQuery.split("&")) {
+            int eq = pair.indexOf('=');
+            String name = eq < 0 ? pair : pair.substring(0, eq);
+            String value = eq < 0 ? "" : pair.substring(eq + 1);
+            query.put(URLDecoder.decode(name, StandardCharsets.UTF_8), URLDecoder.decode(value, StandardCharsets.UTF_8));
+        }
+        return query;
+    }
+
+    /** Sends a short plain text response */
+    private static void sendText(HttpExchange exchange, int status, String message) throws IOException {
+        byte[] bytes = (message + "\n").getBytes(StandardCharsets.UTF_8);
+        exchange.getResponseHeaders().set("Content-Type", "text/plain; charset=utf-8");
+        exchange.sendResponseHeaders(status, bytes.length);
+        try (OutputStream out = exchange.getResponseBody()) {
+            out.write(bytes);
+        }
+    }
+}
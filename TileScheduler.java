@@ -0,0 +1,217 @@
+/* Names: Emma Lee and Rachel Nguyen
+* File: TileScheduler.java
+* Desc:
+*
+* Splits a raster into cache-sized tiles and runs a filter
+* over them in parallel on the shared WorkerPool.
+*
+* Point filters rewrite each pixel in place. Neighborhood
+* filters read a tile plus a halo of surrounding pixels from
+* an unchanged source and write only the tile to a separate
+* destination, so tiles can safely read across their edges.
+*
+*/
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.RecursiveAction;
+import java.util.function.IntConsumer;
+
+public class TileScheduler {
+    public static final int TILE_SIZE = 128; // the side of a tile; 128x128 ints is 64KB
+
+    //---------------- nested Tile class ----------------
+    /** A rectangle of the raster to be written, and the (clamped) rectangle around it that may be read */
+    public static class Tile {
+        private final int x; // the x coordinate of the upper left pixel
+        private final int y; // the y coordinate of the upper left pixel
+        private final int width; // the width of the tile
+        private final int height; // the height of the tile
+        private final int haloX; // the x coordinate of the upper left pixel of the readable area
+        private final int haloY; // the y coordinate of the upper left pixel of the readable area
+        private final int haloWidth; // the width of the readable area
+        private final int haloHeight; // the height of the readable area
+
+        /** Creates a tile with a halo of the given radius, clipped to the raster
+        * @param x The x coordinate
+        * @param y The y coordinate
+        * @param width The width
+        * @param height The height
+        * @param halo The number of pixels that may be read beyond each edge
+        * @param rasterWidth The width of the raster
+        * @param rasterHeight The height of the raster
+        */
+        public Tile(int x, int y, int width, int height, int halo, int rasterWidth, int rasterHeight) {
+            this.x = x;
+            this.y = y;
+            this.width = width;
+            this.height = height;
+            haloX = Math.max(0, x - halo);
+            haloY = Math.max(0, y - halo);
+            haloWidth = Math.min(rasterWidth, x + width + halo) - haloX;
+            haloHeight = Math.min(rasterHeight, y + height + halo) - haloY;
+        }
+
+        // accessors
+        public int getX() {
+            return x;
+        }
+
+        public int getY() {
+            return y;
+        }
+
+        public int getWidth() {
+            return width;
+        }
+
+        public int getHeight() {
+            return height;
+        }
+
+        public int getHaloX() {
+            return haloX;
+        }
+
+        public int getHaloY() {
+            return haloY;
+        }
+
+        public int getHaloWidth() {
+            return haloWidth;
+        }
+
+        public int getHaloHeight() {
+            return haloHeight;
+        }
+    } //----------- end of nested Tile class -----------
+
+    /** Work done on one tile */
+    public interface TileAction {
+        void run(Tile tile);
+    }
+
+    /** A filter that computes a tile of the output from the tile and its halo in the source */
+    public interface NeighborhoodFilter {
+        /** Filters one tile
+        * @param src The unchanged source pixels, row by row
+        * @param width The width of the raster
+        * @param height The height of the raster
+        * @param tile The tile to write; only its halo area of src may be read
+        * @param dst The destination pixels, row by row
+        */
+        void apply(int[] src, int width, int height, Tile tile, int[] dst);
+    }
+
+    //---------------- nested TileTask class ----------------
+    /** Runs an action over a range of indices, such as tiles, halving the range until one index is left */
+    private static class TileTask extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+        private final int from; // the first index of this task
+        private final int to; // one past the last index of this task
+        private final IntConsumer action; // the work to run on each index
+
+        public TileTask(int from, int to, IntConsumer action) {
+            this.from = from;
+            this.to = to;
+            this.action = action;
+        }
+
+        @Override
+        protected void compute() {
+            if (to - from == 1) {
+                action.accept(from);
+                return;
+            }
+            int mid = (from + to) >>> 1;
+            invokeAll(new TileTask(from, mid, action), new TileTask(mid, to, action));
+        }
+    } //----------- end of nested TileTask class -----------
+
+    /** Splits a raster into tiles
+    * @param width The width of the raster
+    * @param height The height of the raster
+    * @param tileSize The side of a tile
+    * @param halo The number of pixels each tile may read beyond its edges
+    * @return List the tiles, row by row
+    */
+    public static List<Tile> tiles(int width, int height, int tileSize, int halo) {
+        List<Tile> tiles = new ArrayList<Tile>();
+        for (int y = 0; y < height; y += tileSize) {
+            for (int x = 0; x < width; x += tileSize) {
+                tiles.add(new Tile(x, y, Math.min(tileSize, width - x), Math.min(tileSize, height - y), halo, width, height));
+            }
+        }
+        return tiles;
+    }
+
+    /** Runs an action on every tile of a raster, in parallel on the WorkerPool
+    * @param width The width of the raster
+    * @param height The height of the raster
+    * @param halo The number of pixels each tile may read beyond its edges
+    * @param action The work to run on each tile
+    */
+    public static void forEachTile(int width, int height, int halo, TileAction action) {
+        List<Tile> tiles = tiles(width, height, TILE_SIZE, halo);
+        forEach(tiles.size(), i -> action.run(tiles.get(i)));
+    }
+
+    /** Runs an action on every index from 0 to count, in parallel on the WorkerPool,
+    * for work split into independent parts such as tiles or the regions of a quadtree
+    * @param count The number of parts
+    * @param action The work to run on each part, given its index
+    */
+    public static void forEach(int count, IntConsumer action) {
+        if (count == 0) {
+            return;
+        }
+        if (WorkerPool.getThreads() == 1 || count == 1) {
+            for (int i = 0; i < count; i++) {
+                action.accept(i);
+            }
+        } else {
+            WorkerPool.get().invoke(new TileTask(0, count, action));
+        }
+    }
+
+    /** Applies a point filter to every pixel in place, in parallel
+    * @param pixels The packed pixels, row by row
+    * @param width The width of the raster
+    * @param height The height of the raster
+    * @param filter The filter, applied to each row of a tile in turn
+    */
+    public static void applyPointFilter(int[] pixels, int width, int height, Image.PointFilter filter) {
+        forEachTile(width, height, 0, tile -> {
+            for (int i = tile.getY(); i < tile.getY() + tile.getHeight(); i++) {
+                int start = i * width + tile.getX();
+                filter.applyTo(pixels, start, start + tile.getWidth());
+            }
+        });
+    }
+
+    /** Applies a neighborhood filter to every tile, in parallel
+    * @param src The packed pixels, row by row; left unchanged
+    * @param width The width of the raster
+    * @param height The height of the raster
+    * @param halo The number of pixels the filter reads beyond each tile edge
+    * @param filter The filter to run on each tile
+    * @return int[] the filtered pixels
+    */
+    public static int[] applyNeighborhoodFilter(int[] src, int width, int height, int halo, NeighborhoodFilter filter) {
+        return applyNeighborhoodFilter(src, width, height, halo, filter, new int[src.length]);
+    }
+
+    /** Applies a neighborhood filter to every tile, in parallel, into a given raster
+    * @param src The packed pixels, row by row; left unchanged
+    * @param width The width of the raster
+    * @param height The height of the raster
+    * @param halo The number of pixels the filter reads beyond each tile edge
+    * @param filter The filter to run on each tile
+    * @param dst The raster to write, the size of src and not src itself
+    * @return int[] dst, holding the filtered pixels
+    */
+    public static int[] applyNeighborhoodFilter(int[] src, int width, int height, int halo, NeighborhoodFilter filter, int[] dst) {
+        forEachTile(width, height, halo, tile -> filter.apply(src, width, height, tile, dst));
+        return dst;
+    }
+}
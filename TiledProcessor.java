@@ -0,0 +1,231 @@
+/* Names: Emma Lee and Rachel Nguyen
+* File: TiledProcessor.java
+* Desc:
+*
+* Filters and compresses PPM images too large to hold in memory.
+*
+* The image is read a strip of rows at a time with a
+* PPM.StripReader and each result is streamed out with a
+* PPM.StripWriter as soon as its strip is done, so peak memory
+* depends on the width of the image and the memory budget, never
+* on its height.
+*
+* Filters see each strip together with a halo of the rows around
+* it, as many as the Pipeline reads beyond a pixel, so a strip is
+* filtered exactly as it would be in the whole image and there
+* are no seams. Compression cuts the strips into square tiles and
+* divides a QuadTree per tile.
+*
+*/
+
+import java.io.IOException;
+
+public class TiledProcessor {
+    public static final long BYTES_PER_MEGABYTE = 1L << 20; // the unit of the memory budget
+    public static final int FILTER_BYTES_PER_PIXEL = 32; // the most bytes per pixel of a strip while filtering: the rows read, a copy, and three channel planes in and out of a convolution
+    public static final int LEVEL_BYTES_PER_PIXEL = 4; // the bytes per pixel of a strip for each compression level's output rows
+    public static final int TREE_BYTES_PER_PIXEL = 112; // the most bytes per pixel of a tile while dividing its QuadTree: the tile, its integral image, the Nodes and two snapshots
+    public static final int MIN_TILE_SIZE = 16; // the smallest tile worth building a QuadTree for
+
+    private final long budget; // the memory budget in bytes
+    private final Pipeline filters; // the filters to apply; or null for none
+
+    /** Creates a processor
+    * @param megabytes The memory budget, in megabytes
+    * @param filters The filters to apply to the image; or null for none
+    */
+    public TiledProcessor(long megabytes, Pipeline filters) {
+        if (megabytes <= 0) {
+            throw new IllegalArgumentException("memory budget must be positive: " + megabytes);
+        }
+        this.budget = megabytes * BYTES_PER_MEGABYTE;
+        this.filters = filters;
+    }
+
+    //---------------- nested StripSource class ----------------
+    /** Hands out filtered strips of an image in order from top to bottom, keeping a
+    * window of the original rows so that neighboring strips share their halos
+    */
+    private static class StripSource {
+        private final PPM.StripReader reader; // the image being read
+        private final Pipeline filters; // the filters to apply; or null for none
+        private final int width; // the width of the image
+        private final int height; // the height of the image
+        private final int halo; // the rows needed above and below a strip
+        private final int[] window; // original rows windowStart .. windowStart + windowRows - 1
+        private int windowStart; // the image row of the first row of the window
+        private int windowRows; // the number of rows in the window
+        private int nextRow; // the first row of the next strip
+
+        /** @param maxRows The most rows that will be asked for at once */
+        public StripSource(PPM.StripReader reader, Pipeline filters, int maxRows) {
+            this.reader = reader;
+            this.filters = filters;
+            this.width = reader.getHeader().getWidth();
+            this.height = reader.getHeader().getHeight();
+            this.halo = filters == null ? 0 : filters.getHalo();
+            this.window = new int[(int) Math.min((long) maxRows + 2L * halo, height) * width];
+        }
+
+        /** Reads and filters the next strip
+        * @param dst The array to write the strip's rows into
+        * @param rows The number of rows in the strip
+        */
+        public void next(int[] dst, int rows) throws IOException {
+            int lo = Math.max(0, nextRow - halo);
+            int hi = Math.min(height, nextRow + rows + halo);
+
+            // drop the rows above the halo and read the rows below the window
+            int keep = Math.max(0, windowStart + windowRows - lo);
+            System.arraycopy(window, (windowRows - keep) * width, window, 0, keep * width);
+            reader.readRows(window, keep * width, hi - lo - keep);
+            windowStart = lo;
+            windowRows = hi - lo;
+
+            int offset = (nextRow - lo) * width;
+            if (filters == null) {
+                System.arraycopy(window, offset, dst, 0, rows * width);
+            } else {
+                // filter a copy so the original rows stay for the next strip's halo
+                int[] pixels = new int[windowRows * width];
+                System.arraycopy(window, 0, pixels, 0, pixels.length);
+                Image img = new Image(pixels, width, windowRows);
+                img.setFirstRow(lo);
+                filters.apply(img);
+                System.arraycopy(img.getPixels(), offset, dst, 0, rows * width);
+            }
+            nextRow += rows;
+        }
+    } //----------- end of nested StripSource class -----------
+
+    /** Returns the most rows of a strip that fit in the budget alongside the other costs
+    * @param width The width of the image
+    * @param halo The halo of the filters
+    * @param bytesPerPixel The bytes per pixel of the strip's rows
+    * @param fixed The bytes already spoken for
+    * @return long the number of rows; less than 1 if none fit
+    */
+    private long stripRows(int width, int halo, int bytesPerPixel, long fixed) {
+        return (budget - fixed) / ((long) width * bytesPerPixel) - 2L * halo;
+    }
+
+    /** Filters an image strip by strip
+    * @param input the filename of the PPM image to be read
+    * @param output the filename to be written to
+    * @param binary True to write P6; false to write P3
+    */
+    public void filter(String input, String output, boolean binary) throws IOException {
+        try (PPM.StripReader reader = new PPM.StripReader(input)) {
+            int width = reader.getHeader().getWidth();
+            int height = reader.getHeader().getHeight();
+            int halo = filters == null ? 0 : filters.getHalo();
+            long rows = Math.min(height, stripRows(width, halo, FILTER_BYTES_PER_PIXEL, 0));
+            if (rows < 1) {
+                throw new IllegalArgumentException("memory budget too small for " + width + "-pixel rows with a halo of " + halo);
+            }
+
+            StripSource source = new StripSource(reader, filters, (int) rows);
+            int[] strip = new int[(int) rows * width];
+            try (PPM.StripWriter writer = new PPM.StripWriter(output, width, height, binary)) {
+                for (int y = 0; y < height; y += rows) {
+                    int n = (int) Math.min(rows, height - y);
+                    source.next(strip, n);
+                    writer.writeRows(strip, 0, n);
+                }
+            }
+            System.out.println("successfully written to " + output);
+        }
+    }
+
+    /** Compresses an image tile by tile, writing every compression level at once.
+    * The tiles are the largest power-of-two squares whose strip and QuadTree fit
+    * in the budget; each level of each tile is a progressive snapshot of its QuadTree.
+    * @param input the filename of the PPM image to be read
+    * @param outputs the filenames to write each compression level to
+    * @param compressionLvls the compression levels, in increasing order
+    * @param outline True to outline the Nodes of each tile's QuadTree
+    * @param binary True to write P6; false to write P3
+    */
+    public void compress(String input, String[] outputs, double[] compressionLvls, boolean outline, boolean binary) throws IOException {
+        try (PPM.StripReader reader = new PPM.StripReader(input)) {
+            int width = reader.getHeader().getWidth();
+            int height = reader.getHeader().getHeight();
+            int halo = filters == null ? 0 : filters.getHalo();
+            int stripBytes = FILTER_BYTES_PER_PIXEL + LEVEL_BYTES_PER_PIXEL * compressionLvls.length;
+
+            // the largest tile whose strip, halo and QuadTree fit
+            int tile = Integer.highestOneBit(Math.max(width, height));
+            if (tile < Math.max(width, height)) {
+                tile <<= 1;
+            }
+            while (tile >= MIN_TILE_SIZE && stripRows(width, halo, stripBytes, (long) tile * tile * TREE_BYTES_PER_PIXEL) < tile) {
+                tile >>= 1;
+            }
+            if (tile < MIN_TILE_SIZE) {
+                throw new IllegalArgumentException("memory budget too small for " + width + "-pixel rows in tiles of " + MIN_TILE_SIZE);
+            }
+            int rows = Math.min(tile, height);
+
+            StripSource source = new StripSource(reader, filters, rows);
+            int[] strip = new int[rows * width];
+            int[][] levels = new int[compressionLvls.length][rows * width]; // each level's rows of the current strip
+            PPM.StripWriter[] writers = new PPM.StripWriter[compressionLvls.length];
+            try {
+                for (int i = 0; i < writers.length; i++) {
+                    writers[i] = new PPM.StripWriter(outputs[i], width, height, binary);
+                }
+                for (int y = 0; y < height; y += rows) {
+                    int th = Math.min(rows, height - y);
+                    source.next(strip, th);
+                    for (int x = 0; x < width; x += tile) {
+                        compressTile(strip, width, x, Math.min(tile, width - x), th, levels, compressionLvls, outline);
+                    }
+                    for (int i = 0; i < writers.length; i++) {
+                        writers[i].writeRows(levels[i], 0, th);
+                    }
+                }
+            } finally {
+                for (PPM.StripWriter writer : writers) {
+                    if (writer != null) {
+                        writer.close();
+                    }
+                }
+            }
+            for (String output : outputs) {
+                System.out.println("successfully written to " + output);
+            }
+        }
+    }
+
+    /** Divides the QuadTree of one tile of a strip and copies each level's snapshot into that level's rows
+    * @param strip The filtered rows of the strip
+    * @param width The width of the strip
+    * @param x The x coordinate of the left column of the tile
+    * @param tw The width of the tile
+    * @param th The height of the tile
+    * @param levels The output rows of each compression level
+    * @param compressionLvls the compression levels
+    * @param outline True to outline the Nodes of the QuadTree
+    */
+    private static void compressTile(int[] strip, int width, int x, int tw, int th, int[][] levels,
+            double[] compressionLvls, boolean outline) throws IOException {
+        int[] pixels = new int[tw * th];
+        for (int i = 0; i < th; i++) {
+            System.arraycopy(strip, i * width + x, pixels, i * tw, tw);
+        }
+        Image img = new Image(pixels, tw, th);
+        QuadTree qt = new QuadTree(img);
+        qt.divideProgressively(compressionLvls, (level, compressed) -> {
+            if (outline) {
+                compressed = compressed.copy();
+                qt.setImg(compressed);
+                qt.outline(qt.getRoot());
+                qt.setImg(img);
+            }
+            int[] src = compressed.getPixels();
+            for (int i = 0; i < th; i++) {
+                System.arraycopy(src, i * tw, levels[level], i * width + x, tw);
+            }
+        });
+    }
+}
@@ -0,0 +1,282 @@
+/* Names: Emma Lee and Rachel Nguyen
+* File: TreeCache.java
+* Desc:
+*
+* A cache of fully divided quadtrees, keyed by the content of
+* the image they were built from.
+*
+* The key is a SHA-256 hash of the image's size and pixels, so
+* the same picture read from any file, or sent to the server
+* twice, finds the same tree. A fully divided LinearQuadTree
+* holds everything the quadtree work needs from the image's
+* statistics: a Node has children exactly when it is detailed
+* enough to split, and every Node keeps its mean color. Any
+* compression level is cut from it with prune(), and outlines
+* and edge detection walk it directly, so a repeated image
+* skips divide() and never builds its summed-area tables.
+*
+* Trees are kept in memory, least recently used first out,
+* within a budget of bytes. Given a directory, they are also
+* written there, one file per image, and read back by later
+* runs of the program. A file holds a header (magic, width,
+* height, number of Nodes) and a deflated body with each Node
+* in breadth-first order: one byte, 1 if it is divided and 0 if
+* not, then its mean color as 3 bytes of red, green and blue,
+* each the difference (mod 256) from the previous Node's.
+*
+*/
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.IntBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HexFormat;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Objects;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.InflaterInputStream;
+
+public class TreeCache {
+    public static final long DEFAULT_MEMORY_MEGABYTES = 256; // the memory budget of the shared cache
+    public static final String FILETYPE = ".qtt"; // the file type of a tree on disk
+    public static final int MAGIC = 0x51545431; // "QTT1"
+    public static final String DIGEST = "SHA-256"; // the hash the keys are made with
+    public static final int HASH_CHUNK = 1 << 14; // the pixels hashed at a time
+
+    private static String sharedDirectory; // the directory of the shared cache; or null for memory only
+    private static TreeCache shared; // the shared cache, created on first use
+
+    private final long budget; // the most bytes of trees kept in memory
+    private final Path directory; // where trees are written; or null to keep them in memory only
+    private final LinkedHashMap<String, LinearQuadTree> trees =
+        new LinkedHashMap<String, LinearQuadTree>(16, 0.75f, true); // the trees in memory, least recently used first
+    private long bytes; // the memory the trees in memory take
+    private long hits; // the lookups answered from memory or disk
+    private long misses; // the lookups that built a tree
+
+    /** Creates a cache
+    * @param megabytes The memory budget, in megabytes
+    * @param directory The directory to keep trees in between runs; or null for memory only
+    */
+    public TreeCache(long megabytes, String directory) throws IOException {
+        if (megabytes < 0) {
+            throw new IllegalArgumentException("cache budget must not be negative: " + megabytes);
+        }
+        this.budget = megabytes * TiledProcessor.BYTES_PER_MEGABYTE;
+        this.directory = directory == null ? null : Files.createDirectories(Paths.get(directory));
+    }
+
+    /** Sets the directory of the shared cache, replacing the cache if it already exists
+    * @param directory The directory to keep trees in between runs; or null for memory only
+    */
+    public static synchronized void setDirectory(String directory) {
+        if (shared != null && !Objects.equals(directory, sharedDirectory)) {
+            shared = null;
+        }
+        sharedDirectory = directory;
+    }
+
+    /** Returns the shared cache
+    * @return TreeCache the cache with the default memory budget and the configured directory
+    */
+    public static synchronized TreeCache get() throws IOException {
+        if (shared == null) {
+            shared = new TreeCache(DEFAULT_MEMORY_MEGABYTES, sharedDirectory);
+        }
+        return shared;
+    }
+
+    // getters
+    public synchronized long getHits() {
+        return hits;
+    }
+
+    public synchronized long getMisses() {
+        return misses;
+    }
+
+    public synchronized long getMemoryBytes() {
+        return bytes;
+    }
+
+    /** Returns the fully divided tree of an image, building it only if neither
+    * memory nor the directory has it. The tree is shared and has no image behind
+    * it; use prune() for a tree of one's own.
+    * @param img The image
+    * @return LinearQuadTree the fully divided tree of the image, in breadth-first order
+    */
+    public LinearQuadTree tree(Image img) throws IOException {
+        String key = key(img);
+        synchronized (this) {
+            LinearQuadTree tree = trees.get(key);
+            if (tree != null) {
+                hits++;
+                Metrics.countCacheLookup(true);
+                return tree;
+            }
+        }
+
+        LinearQuadTree tree = directory == null ? null : readTree(directory.resolve(key + FILETYPE), img.getWidth(), img.getHeight());
+        boolean built = tree == null;
+        if (built) {
+            tree = new LinearQuadTree(img);
+            tree.divide(Double.POSITIVE_INFINITY); // breadth first, so prune() can cut it
+            tree.setImg(null); // keep the tree, not the image
+            if (directory != null) {
+                writeTree(tree, directory.resolve(key + FILETYPE));
+            }
+        }
+
+        synchronized (this) {
+            if (built) {
+                misses++;
+            } else {
+                hits++;
+            }
+            keep(key, tree);
+        }
+        Metrics.countCacheLookup(!built);
+        return tree;
+    }
+
+    /** Keeps a tree in memory, dropping the least recently used ones over the budget */
+    private void keep(String key, LinearQuadTree tree) {
+        if (tree.getMemoryBytes() > budget) {
+            return; // would push out everything else
+        }
+        LinearQuadTree old = trees.put(key, tree);
+        bytes += tree.getMemoryBytes() - (old == null ? 0 : old.getMemoryBytes());
+        Iterator<Map.Entry<String, LinearQuadTree>> eldest = trees.entrySet().iterator();
+        while (bytes > budget) {
+            bytes -= eldest.next().getValue().getMemoryBytes();
+            eldest.remove();
+        }
+    }
+
+    /** Hashes the size and pixels of an image, along with the threshold the tree depends on
+    * @param img The image
+    * @return String the hash in hexadecimal
+    */
+    public static String key(Image img) {
+        MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance(DIGEST);
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e); // every Java platform has SHA-256
+        }
+        int[] pixels = img.getPixels();
+        ByteBuffer buf = ByteBuffer.allocate(HASH_CHUNK * Integer.BYTES);
+        buf.putInt(img.getWidth()).putInt(img.getHeight()).putLong(Double.doubleToLongBits(QuadTree.THRESHOLD));
+        digest.update(buf.array(), 0, buf.position());
+        buf.clear();
+        IntBuffer ints = buf.asIntBuffer();
+        for (int from = 0; from < pixels.length; from += HASH_CHUNK) {
+            int n = Math.min(HASH_CHUNK, pixels.length - from);
+            ints.clear();
+            ints.put(pixels, from, n);
+            digest.update(buf.array(), 0, n * Integer.BYTES);
+        }
+        return HexFormat.of().formatHex(digest.digest());
+    }
+
+    /** Writes a tree, to a temporary file first so no reader ever sees half of it
+    * @param tree The fully divided tree, in breadth-first order
+    * @param file the file to be written to
+    */
+    private static void writeTree(LinearQuadTree tree, Path file) throws IOException {
+        Path tmp = Files.createTempFile(file.getParent(), file.getFileName().toString(), ".tmp");
+        try {
+            try (OutputStream raw = new BufferedOutputStream(Files.newOutputStream(tmp), QuadTreeCodec.BUFFER_SIZE)) {
+                DataOutputStream header = new DataOutputStream(raw);
+                header.writeInt(MAGIC);
+                header.writeInt(tree.getWidth());
+                header.writeInt(tree.getHeight());
+                header.writeInt(tree.size());
+                header.flush();
+
+                Deflater deflater = new Deflater(Deflater.BEST_SPEED);
+                DeflaterOutputStream body = new DeflaterOutputStream(raw, deflater, QuadTreeCodec.BUFFER_SIZE);
+                int previous = Image.BLACK;
+                for (int node = 0; node < tree.size(); node++) {
+                    int color = tree.getMeanRGB(node);
+                    body.write(tree.isLeaf(node) ? 0 : 1);
+                    body.write(Image.red(color) - Image.red(previous));
+                    body.write(Image.green(color) - Image.green(previous));
+                    body.write(Image.blue(color) - Image.blue(previous));
+                    previous = color;
+                }
+                body.finish();
+                deflater.end();
+            }
+            Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            Files.deleteIfExists(tmp);
+        }
+    }
+
+    /** Reads a tree written by writeTree
+    * @param file the file to be read
+    * @param width the width of the image the tree was cached for
+    * @param height the height of the image the tree was cached for
+    * @return LinearQuadTree the tree; or null if there is no such file or it is damaged
+    */
+    private static LinearQuadTree readTree(Path file, int width, int height) {
+        if (!Files.exists(file)) {
+            return null;
+        }
+        try (InputStream raw = new BufferedInputStream(Files.newInputStream(file), QuadTreeCodec.BUFFER_SIZE)) {
+            DataInputStream header = new DataInputStream(raw);
+            if (header.readInt() != MAGIC) {
+                throw new IOException("not a cached quadtree");
+            }
+            int treeWidth = header.readInt();
+            int treeHeight = header.readInt();
+            if (treeWidth <= 0 || treeHeight <= 0 || treeWidth != width || treeHeight != height) {
+                throw new IOException("malformed header: " + treeWidth + "x" + treeHeight + " for a " + width + "x" + height + " image");
+            }
+            LinearQuadTree tree = new LinearQuadTree(treeWidth, treeHeight);
+            int size = header.readInt();
+
+            DataInputStream body = new DataInputStream(new BufferedInputStream(new InflaterInputStream(raw), QuadTreeCodec.BUFFER_SIZE));
+            int previous = Image.BLACK;
+            // splitting in the order the Nodes are read appends them in the order they were written, breadth first
+            for (int node = 0; node < tree.size(); node++) {
+                boolean divided = body.readUnsignedByte() != 0;
+                int r = (Image.red(previous) + body.readUnsignedByte()) & 0xFF;
+                int g = (Image.green(previous) + body.readUnsignedByte()) & 0xFF;
+                int b = (Image.blue(previous) + body.readUnsignedByte()) & 0xFF;
+                previous = Image.pack(r, g, b);
+                tree.setMeanRGB(node, previous);
+                if (divided) {
+                    if ((long) tree.getWidth(node) * tree.getHeight(node) <= 1 || tree.size() + QuadTree.NUM_CHILDREN > size) {
+                        throw new IOException("Node " + node + " cannot be divided");
+                    }
+                    tree.split(node);
+                }
+            }
+            if (tree.size() != size) {
+                throw new EOFException("expected " + size + " Nodes, read " + tree.size());
+            }
+            body.close();
+            return tree;
+        } catch (IOException e) {
+            System.out.println("ignoring damaged cached quadtree " + file + ": " + e);
+            return null;
+        }
+    }
+}
@@ -0,0 +1,93 @@
+/* Names: Emma Lee and Rachel Nguyen
+* File: VectorPixelOps.java
+* Desc:
+*
+* The vector versions of the loops in PixelOps, written with the
+* incubating Vector API (jdk.incubator.vector).
+*
+* Each loop works on as many pixels at once as the processor's
+* widest vectors hold and finishes the last few pixels with the
+* scalar code, and each does exactly the arithmetic of the scalar
+* code, so the results are the same to the bit: tint's division
+* by 255 becomes shifts that are exact for every product of two
+* channel values. Only PixelOps calls this class, and only once
+* it has checked the module is present.
+*
+*/
+
+import jdk.incubator.vector.FloatVector;
+import jdk.incubator.vector.IntVector;
+import jdk.incubator.vector.VectorOperators;
+import jdk.incubator.vector.VectorSpecies;
+
+public class VectorPixelOps {
+    private static final VectorSpecies<Integer> INTS = IntVector.SPECIES_PREFERRED; // the widest vector of ints
+    private static final VectorSpecies<Float> FLOATS = FloatVector.SPECIES_PREFERRED; // as many floats as INTS has ints
+
+    /** Returns the size of the widest vectors
+    * @return int the number of bits
+    */
+    public static int getVectorBits() {
+        return INTS.vectorBitSize();
+    }
+
+    /** Applies the negative filter to pixels[from, to) in place */
+    public static void negative(int[] pixels, int from, int to) {
+        int k = from;
+        for (int end = from + INTS.loopBound(to - from); k < end; k += INTS.length()) {
+            IntVector.fromArray(INTS, pixels, k).lanewise(VectorOperators.XOR, 0x00FFFFFF).intoArray(pixels, k);
+        }
+        for (; k < to; k++) {
+            pixels[k] = PixelOps.negative(pixels[k]);
+        }
+    }
+
+    /** Tints pixels[from, to) in place with the color r, g, b */
+    public static void tint(int[] pixels, int from, int to, int r, int g, int b) {
+        int k = from;
+        for (int end = from + INTS.loopBound(to - from); k < end; k += INTS.length()) {
+            IntVector color = IntVector.fromArray(INTS, pixels, k);
+            IntVector red = divideBy255(color.lanewise(VectorOperators.ASHR, 16).and(0xFF).mul(r));
+            IntVector green = divideBy255(color.lanewise(VectorOperators.ASHR, 8).and(0xFF).mul(g));
+            IntVector blue = divideBy255(color.and(0xFF).mul(b));
+            pack(red, green, blue).intoArray(pixels, k);
+        }
+        for (; k < to; k++) {
+            pixels[k] = PixelOps.tint(pixels[k], r, g, b);
+        }
+    }
+
+    /** Sums the red, green and blue values of a run of pixels
+    * @param pixels The packed pixels
+    * @param from The index of the first pixel
+    * @param plane The array to write each pixel's sum to
+    * @param offset The index in plane of the first pixel's sum
+    * @param length The number of pixels
+    */
+    public static void intensity(int[] pixels, int from, float[] plane, int offset, int length) {
+        int i = 0;
+        for (int end = INTS.loopBound(length); i < end; i += INTS.length()) {
+            IntVector color = IntVector.fromArray(INTS, pixels, from + i);
+            IntVector sum = color.lanewise(VectorOperators.ASHR, 16).and(0xFF)
+                .add(color.lanewise(VectorOperators.ASHR, 8).and(0xFF))
+                .add(color.and(0xFF));
+            ((FloatVector) sum.convertShape(VectorOperators.I2F, FLOATS, 0)).intoArray(plane, offset + i);
+        }
+        for (; i < length; i++) {
+            int c = pixels[from + i];
+            plane[offset + i] = Image.red(c) + Image.green(c) + Image.blue(c);
+        }
+    }
+
+    /** Divides each lane, a product of two channel values, by 255. For every x in
+    * [0, 255 * 255], (x + 1 + (x >> 8)) >> 8 is x / 255 rounded down.
+    */
+    private static IntVector divideBy255(IntVector x) {
+        return x.add(1).add(x.lanewise(VectorOperators.LSHR, 8)).lanewise(VectorOperators.LSHR, 8);
+    }
+
+    /** Packs channel lanes into opaque pixels, as Image.pack does */
+    private static IntVector pack(IntVector r, IntVector g, IntVector b) {
+        return r.lanewise(VectorOperators.LSHL, 16).or(g.lanewise(VectorOperators.LSHL, 8)).or(b).or(Image.OPAQUE);
+    }
+}
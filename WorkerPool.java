@@ -0,0 +1,46 @@
+/* Names: Emma Lee and Rachel Nguyen
+* File: WorkerPool.java
+* Desc:
+*
+* Holds the ForkJoinPool shared by the parallel
+* QuadTree build and the parallel filters.
+*
+* The number of worker threads is configurable and
+* defaults to the number of available processors.
+*
+*/
+
+import java.util.concurrent.ForkJoinPool;
+
+public class WorkerPool {
+    private static int threads = Runtime.getRuntime().availableProcessors(); // the number of worker threads
+    private static ForkJoinPool pool; // the shared pool, created on first use
+
+    /** Sets the number of worker threads, replacing the pool if it already exists
+    * @param n The number of threads
+    */
+    public static synchronized void setThreads(int n) {
+        if (n < 1) {
+            throw new IllegalArgumentException("thread count must be positive: " + n);
+        }
+        if (pool != null && n != threads) {
+            pool.shutdown();
+            pool = null;
+        }
+        threads = n;
+    }
+
+    public static synchronized int getThreads() {
+        return threads;
+    }
+
+    /** Returns the shared pool
+    * @return ForkJoinPool the pool with the configured number of threads
+    */
+    public static synchronized ForkJoinPool get() {
+        if (pool == null) {
+            pool = new ForkJoinPool(threads);
+        }
+        return pool;
+    }
+}
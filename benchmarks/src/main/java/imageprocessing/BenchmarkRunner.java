@@ -0,0 +1,49 @@
+/* Names: Emma Lee and Rachel Nguyen
+* File: BenchmarkRunner.java
+* Desc:
+*
+* Runs the benchmarks with the allocation profiler and JSON
+* results on by default, so that each release can be compared
+* by throughput and allocation rate. Takes the usual JMH
+* options, e.g. -p size=256 or FilterBenchmark.blur; -rf and -rff
+* choose a different result format or file. The forked JVMs get
+* the Vector API module, so the vector kernels of PixelOps are
+* measured unless -jvmArgsAppend says otherwise.
+*
+*/
+
+package imageprocessing;
+
+import java.io.IOException;
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.results.format.ResultFormatType;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.ChainedOptionsBuilder;
+import org.openjdk.jmh.runner.options.CommandLineOptionException;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+public class BenchmarkRunner {
+    public static final String RESULT_FILE = "jmh-result.json"; // where results go unless -rff is given
+
+    public static void main(String[] args) throws RunnerException, CommandLineOptionException, IOException {
+        CommandLineOptions cmd = new CommandLineOptions(args);
+        if (cmd.shouldHelp() || cmd.shouldList() || cmd.shouldListWithParams() || cmd.shouldListProfilers()
+                || cmd.shouldListResultFormats()) { // nothing to run; JMH prints what was asked for
+            org.openjdk.jmh.Main.main(args);
+            return;
+        }
+        ChainedOptionsBuilder options = new OptionsBuilder().parent(cmd).addProfiler(GCProfiler.class);
+        if (!cmd.getResultFormat().hasValue()) {
+            options.resultFormat(ResultFormatType.JSON);
+        }
+        if (!cmd.getResult().hasValue()) {
+            options.result(RESULT_FILE);
+        }
+        if (!cmd.getJvmArgsAppend().hasValue()) {
+            options.jvmArgsAppend("--add-modules=" + PixelOps.VECTOR_MODULE);
+        }
+        new Runner(options.build()).run();
+    }
+}
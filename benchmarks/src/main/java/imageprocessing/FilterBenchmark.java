@@ -0,0 +1,91 @@
+/* Names: Emma Lee and Rachel Nguyen
+* File: FilterBenchmark.java
+* Desc:
+*
+* Benchmarks each filter of Image, in place on the same image.
+* None of the filters costs more or less for the pixels it is
+* given, so filtering an already filtered image measures the same work.
+*
+*/
+
+package imageprocessing;
+
+import java.awt.Color;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class FilterBenchmark {
+    public static final int BLUR_SIZE = 15; // the side of the blur kernel
+    public static final Color TINT = new Color(0xFF8000); // the tint color
+
+    @Param({"256", "1024", "2048"})
+    public int size; // the width and height of the image
+
+    @Param({"FLAT", "GRADIENT", "BLOCKS", "NOISE"})
+    public SyntheticImages.Profile profile; // how much detail the image has
+
+    private Image img; // the image being filtered
+
+    @Setup
+    public void setUp() {
+        img = SyntheticImages.create(size, profile);
+    }
+
+    @Benchmark
+    public Image negative() {
+        img.negative();
+        return img;
+    }
+
+    @Benchmark
+    public Image grayscale() {
+        img.grayscale();
+        return img;
+    }
+
+    @Benchmark
+    public Image tint() {
+        img.tint(TINT);
+        return img;
+    }
+
+    @Benchmark
+    public Image randomNeighbor() {
+        img.randomNeighbor();
+        return img;
+    }
+
+    @Benchmark
+    public Image blur() {
+        img.blur(BLUR_SIZE);
+        return img;
+    }
+
+    @Benchmark
+    public Image sharpen() {
+        img.sharpen();
+        return img;
+    }
+
+    @Benchmark
+    public Image sobel() {
+        img.sobel();
+        return img;
+    }
+}
@@ -0,0 +1,77 @@
+/* Names: Emma Lee and Rachel Nguyen
+* File: IoBenchmark.java
+* Desc:
+*
+* Benchmarks reading and writing PPM files in both formats.
+*
+*/
+
+package imageprocessing;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class IoBenchmark {
+    @Param({"256", "1024", "2048"})
+    public int size; // the width and height of the image
+
+    @Param({"FLAT", "NOISE"})
+    public SyntheticImages.Profile profile; // how much detail the image has
+
+    @Param({"P3", "P6"})
+    public String format; // the PPM format read and written
+
+    private Image img; // the image to write
+    private File input; // a file holding the image, to read
+    private File output; // the file written to
+
+    @Setup
+    public void setUp() throws IOException {
+        img = SyntheticImages.create(size, profile);
+        input = File.createTempFile("bench-in", Main.FILETYPE);
+        output = File.createTempFile("bench-out", Main.FILETYPE);
+        PPM.write(img, input.getPath(), isBinary());
+    }
+
+    @TearDown
+    public void tearDown() {
+        input.delete();
+        output.delete();
+    }
+
+    private boolean isBinary() {
+        return PPM.BINARY_MAGIC.equals(format);
+    }
+
+    @Benchmark
+    public Image readImg() throws IOException {
+        Image read = new Image(1, 1);
+        read.readImg(input.getPath());
+        return read;
+    }
+
+    /** Writes through PPM.write, which is all of Image.writeImg but its message on the console */
+    @Benchmark
+    public void writeImg() throws IOException {
+        PPM.write(img, output.getPath(), isBinary());
+    }
+}
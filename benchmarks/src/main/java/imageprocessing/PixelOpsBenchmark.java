@@ -0,0 +1,79 @@
+/* Names: Emma Lee and Rachel Nguyen
+* File: PixelOpsBenchmark.java
+* Desc:
+*
+* Benchmarks the loops of PixelOps with the vector kernels on
+* and off, in place on the same pixels. The vectorized runs fail,
+* with a message, when the forked JVM lacks the Vector API.
+*
+*/
+
+package imageprocessing;
+
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class PixelOpsBenchmark {
+    public static final int TINT_RED = 0xFF; // the tint color
+    public static final int TINT_GREEN = 0x80;
+    public static final int TINT_BLUE = 0x00;
+
+    @Param({"256", "1024", "2048"})
+    public int size; // the width and height of the image
+
+    @Param({"false", "true"})
+    public boolean vectorized; // whether the vector kernels are used
+
+    private int[] pixels; // the pixels being filtered
+    private float[] plane; // the channel sums
+
+    @Setup
+    public void setUp() {
+        if (vectorized && !PixelOps.isVectorAvailable()) {
+            throw new IllegalStateException("run with --add-modules " + PixelOps.VECTOR_MODULE + " to measure the vector kernels");
+        }
+        PixelOps.setVectorized(vectorized);
+        pixels = SyntheticImages.create(size, SyntheticImages.Profile.NOISE).getPixels();
+        plane = new float[pixels.length];
+    }
+
+    @Benchmark
+    public int[] negative() {
+        PixelOps.negative(pixels, 0, pixels.length);
+        return pixels;
+    }
+
+    @Benchmark
+    public int[] grayscale() {
+        PixelOps.grayscale(pixels, 0, pixels.length);
+        return pixels;
+    }
+
+    @Benchmark
+    public int[] tint() {
+        PixelOps.tint(pixels, 0, pixels.length, TINT_RED, TINT_GREEN, TINT_BLUE);
+        return pixels;
+    }
+
+    @Benchmark
+    public float[] intensity() {
+        PixelOps.intensity(pixels, plane);
+        return plane;
+    }
+}
@@ -0,0 +1,122 @@
+/* Names: Emma Lee and Rachel Nguyen
+* File: QuadTreeBenchmark.java
+* Desc:
+*
+* Benchmarks dividing a QuadTree to each compression level, and
+* compressing, edge detecting and outlining with a fully divided one.
+* The benchmarks that draw on the image get a fresh copy each call.
+*
+*/
+
+package imageprocessing;
+
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class QuadTreeBenchmark {
+
+    //---------------- nested Divide class ----------------
+    /** A tree over an image, divided by each benchmark */
+    @State(Scope.Thread)
+    public static class Divide {
+        @Param({"256", "1024", "2048"})
+        public int size; // the width and height of the image
+
+        @Param({"FLAT", "GRADIENT", "BLOCKS", "NOISE"})
+        public SyntheticImages.Profile profile; // how much detail the image has
+
+        QuadTree qt; // the tree
+
+        @Setup
+        public void setUp() {
+            qt = new QuadTree(SyntheticImages.create(size, profile));
+            qt.divide(); // build the summed-area tables outside the measurement
+        }
+    } //----------- end of nested Divide class -----------
+
+    //---------------- nested Target class ----------------
+    /** The compression level to divide to */
+    @State(Scope.Thread)
+    public static class Target {
+        @Param({"0.002", "0.004", "0.01", "0.033", "0.077", "0.2", "0.5", "0.75"}) // Main.COMPRESSION_LVLS
+        public double compressionLvl; // the compression level to divide to
+    } //----------- end of nested Target class -----------
+
+    //---------------- nested Divided class ----------------
+    /** A fully divided tree */
+    @State(Scope.Thread)
+    public static class Divided {
+        @Param({"256", "1024", "2048"})
+        public int size; // the width and height of the image
+
+        @Param({"FLAT", "GRADIENT", "BLOCKS", "NOISE"})
+        public SyntheticImages.Profile profile; // how much detail the image has
+
+        Image original; // the image the tree was divided over
+        QuadTree qt; // the tree
+
+        @Setup
+        public void setUp() {
+            original = SyntheticImages.create(size, profile);
+            qt = new QuadTree(original);
+            qt.divide();
+        }
+    } //----------- end of nested Divided class -----------
+
+    //---------------- nested Canvas class ----------------
+    /** A fresh copy of the image for each call of a benchmark that draws on it.
+    * The copy shows up in the allocation rate of those benchmarks.
+    */
+    @State(Scope.Thread)
+    public static class Canvas {
+        @Setup(Level.Invocation)
+        public void setUp(Divided divided) {
+            divided.qt.setImg(divided.original.copy());
+        }
+    } //----------- end of nested Canvas class -----------
+
+    @Benchmark
+    public QuadTree divide(Divide state, Target target) {
+        state.qt.divide(target.compressionLvl);
+        return state.qt;
+    }
+
+    @Benchmark
+    public QuadTree divideFully(Divide state) {
+        state.qt.divide();
+        return state.qt;
+    }
+
+    @Benchmark
+    public Image compress(Divided state) {
+        return state.qt.compress();
+    }
+
+    @Benchmark
+    public QuadTree edgeDetection(Divided state, Canvas canvas) {
+        state.qt.edgeDetection();
+        return state.qt;
+    }
+
+    @Benchmark
+    public QuadTree outline(Divided state, Canvas canvas) {
+        state.qt.outline(state.qt.getRoot());
+        return state.qt;
+    }
+}
@@ -0,0 +1,80 @@
+/* Names: Emma Lee and Rachel Nguyen
+* File: SyntheticImages.java
+* Desc:
+*
+* Generates the images the benchmarks run on.
+*
+* Each Profile is a step up in entropy, from one flat color that
+* a QuadTree never splits to uniform noise that it splits down to
+* single pixels, so the benchmarks show how the cost of each
+* operation follows the detail in the image. Images are seeded, so
+* every run measures the same pixels.
+*
+*/
+
+package imageprocessing;
+
+import java.util.SplittableRandom;
+
+public class SyntheticImages {
+    public static final long SEED = 42; // the seed of every generated image
+    public static final int BLOCK_SIZE = 32; // the side of the squares of the BLOCKS profile
+
+    /** How much detail a generated image has */
+    public enum Profile {
+        FLAT, // a single color
+        GRADIENT, // smooth ramps of red and green
+        BLOCKS, // flat squares of random colors, with sharp edges between them
+        NOISE // every pixel a random color
+    }
+
+    /** Creates a square image
+    * @param size The width and height of the image
+    * @param profile How much detail the image has
+    * @return Image the generated image
+    */
+    public static Image create(int size, Profile profile) {
+        return create(size, size, profile);
+    }
+
+    /** Creates an image
+    * @param width The width of the image
+    * @param height The height of the image
+    * @param profile How much detail the image has
+    * @return Image the generated image
+    */
+    public static Image create(int width, int height, Profile profile) {
+        SplittableRandom random = new SplittableRandom(SEED);
+        int[] pixels = new int[width * height];
+        int blocksPerRow = (width + BLOCK_SIZE - 1) / BLOCK_SIZE;
+        int[] blockColors = new int[blocksPerRow * ((height + BLOCK_SIZE - 1) / BLOCK_SIZE)];
+        for (int i = 0; i < blockColors.length; i++) {
+            blockColors[i] = randomColor(random);
+        }
+        for (int i = 0; i < height; i++) {
+            for (int j = 0; j < width; j++) {
+                int color;
+                switch (profile) {
+                    case FLAT:
+                        color = Image.pack(90, 140, 200);
+                        break;
+                    case GRADIENT:
+                        color = Image.pack(j * 255 / Math.max(1, width - 1), i * 255 / Math.max(1, height - 1), 128);
+                        break;
+                    case BLOCKS:
+                        color = blockColors[(i / BLOCK_SIZE) * blocksPerRow + j / BLOCK_SIZE];
+                        break;
+                    default:
+                        color = randomColor(random);
+                }
+                pixels[i * width + j] = color;
+            }
+        }
+        return new Image(pixels, width, height);
+    }
+
+    /** Returns a uniformly random opaque color */
+    private static int randomColor(SplittableRandom random) {
+        return random.nextInt(1 << 24) | Image.OPAQUE;
+    }
+}